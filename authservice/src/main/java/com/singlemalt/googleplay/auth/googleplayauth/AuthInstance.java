@@ -5,16 +5,43 @@ import android.content.Intent;
 import android.util.Log;
 
 import com.google.android.gms.common.api.GoogleApiClient;
-import com.google.android.gms.games.Games;
 import com.google.gson.Gson;
+import com.singlemalt.googleplay.auth.googleplayauth.cache.CookieJar;
+import com.singlemalt.googleplay.auth.googleplayauth.cache.IdentityStore;
+import com.singlemalt.googleplay.auth.googleplayauth.cache.SessionStore;
+import com.singlemalt.googleplay.auth.googleplayauth.cache.TokenCache;
+import com.singlemalt.googleplay.auth.googleplayauth.codec.AuthCodec;
+import com.singlemalt.googleplay.auth.googleplayauth.codec.RequestPojo;
+import com.singlemalt.googleplay.auth.googleplayauth.concurrent.AuthExecutor;
+import com.singlemalt.googleplay.auth.googleplayauth.games.AchievementQueue;
+import com.singlemalt.googleplay.auth.googleplayauth.games.ScoreQueue;
+import com.singlemalt.googleplay.auth.googleplayauth.metrics.AuthMetrics;
+import com.singlemalt.googleplay.auth.googleplayauth.metrics.EventTrace;
+import com.singlemalt.googleplay.auth.googleplayauth.net.AuthHttpClient;
+import com.singlemalt.googleplay.auth.googleplayauth.net.AuthTransport;
+import com.singlemalt.googleplay.auth.googleplayauth.net.ConnectionWarmer;
+import com.singlemalt.googleplay.auth.googleplayauth.net.CookieTransport;
+import com.singlemalt.googleplay.auth.googleplayauth.net.EndpointSelector;
+import com.singlemalt.googleplay.auth.googleplayauth.net.HttpUrlTransport;
 import com.singlemalt.googleplay.auth.googleplayauth.runners.ServerAuthRunner;
+import com.singlemalt.googleplay.auth.googleplayauth.runners.TokenRefresher;
+import com.singlemalt.googleplay.auth.googleplayauth.tasks.AuthTask;
 import com.singlemalt.googleplay.auth.googleplayauth.tasks.GetOAuthTokenTask;
 import com.unity3d.player.UnityPlayer;
 
 import java.io.IOException;
-import java.util.HashMap;
+import java.net.CookieHandler;
+import java.net.CookieManager;
+import java.net.CookiePolicy;
+import java.net.CookieStore;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Created by singlemalt on 4/12/2016.
@@ -22,27 +49,60 @@ import java.util.concurrent.Executors;
 public class AuthInstance {
     public static final String TAG = AuthInstance.class.getSimpleName();
     public static final int REQUEST_ACHIEVEMENTS = 1002;
+    // thread safe, shared by every token delivery
+    private static final Gson GSON = new Gson();
 
     private static AuthInstance ourInstance = new AuthInstance();
 
-    private String playerId = null;
-    private String playerName;
-    private String failureError;
-    private String serverPlayerId;
-    private String sessionToken = "";
-    private String scope;
-    private String accountName;
-    private String oauthToken;
-    private String clientId;
-    private String serverUrl;
-    private boolean anonymous = true;
-
-    private Status loginStatus;
-    private Status oauthStatus;
-    private Status serverAuthStatus;
+    private volatile String playerId = null;
+    private volatile String playerName;
+    private volatile String failureError;
+    private volatile String serverPlayerId;
+    private volatile String scope;
+    private volatile String accountName;
+    private volatile String oauthToken;
+    private volatile String clientId;
+    private volatile String serverUrl;
+    private volatile String sessionValidationUrl;
+    private volatile String sessionCookieName;
+    private volatile SessionStore.ResumeMode sessionResumeMode = SessionStore.ResumeMode.None;
+    private volatile boolean silentSignIn = false;
+    private volatile EndpointSelector endpoints;
+    private volatile long hedgeDelay = 0;
+    private volatile boolean optimisticLogin = false;
+    private volatile boolean twoPhaseAuth = false;
+    private volatile boolean binaryWireFormat = false;
+    // identity reported ahead of verification in the current attempt, if any
+    private volatile IdentityStore.Identity optimisticIdentity;
+
+    // login, oauth and server auth status, anonymous flag and session of the current attempt
+    private final AtomicReference<AuthState> state = new AtomicReference<>(AuthState.initial());
 
     // Google API client
-    private GoogleApiClient googleApiClient;
+    private volatile GoogleApiClient googleApiClient;
+
+    // server transport
+    private final HttpUrlTransport httpTransport = new HttpUrlTransport();
+    private final CookieTransport transport = new CookieTransport(httpTransport);
+    private final AuthHttpClient httpClient = new AuthHttpClient(transport,
+            new AuthHttpClient.Reauthenticator() {
+        @Override
+        public boolean reauthenticate() throws IOException {
+            return ServerAuthRunner.reauthenticate();
+        }
+    });
+    private final ConnectionWarmer connectionWarmer = new ConnectionWarmer();
+
+    public interface AuthParamsCallback {
+        void onAuthParams(String authParams);
+    }
+
+    public interface TokensCallback {
+        /**
+         * Gets a token per requested scope, scopes that could not be fetched are left out.
+         */
+        void onTokens(Map<String, String> tokens);
+    }
 
     public enum Status {
         Working,
@@ -60,19 +120,50 @@ public class AuthInstance {
     }
 
     public void init(String clientId, String serverUrl, String playerId) {
-        Log.d(TAG, "init instance");
+        init(clientId, new String[] { serverUrl }, playerId);
+    }
+
+    /**
+     * Like {@link #init(String, String, String)} but with a list of regional auth endpoints.
+     * Server auth goes to the endpoint with the best recent latency and error rate and fails
+     * over down the list.
+     */
+    public void init(String clientId, String[] serverUrls, String playerId) {
+        EventTrace.record(EventTrace.Event.Init);
+        AuthMetrics.getInstance().markLoginStart();
 
         this.clientId = clientId;
-        this.serverUrl = serverUrl;
+        if (endpoints == null || !endpoints.hasUrls(serverUrls)) {
+            endpoints = new EndpointSelector(serverUrls);
+        }
+        this.serverUrl = endpoints.getPrimaryUrl();
         this.serverPlayerId = playerId;
-        this.loginStatus = Status.Working;
-        this.oauthStatus = Status.Working;
-        this.serverAuthStatus = Status.Working;
+        if (transport.getCookieHandler() == null) {
+            transport.setCookieHandler(new CookieManager(
+                    CookieJar.getInstance(UnityPlayer.currentActivity),
+                    CookiePolicy.ACCEPT_ORIGINAL_SERVER));
+        }
+        startAttempt();
+
+        reportOptimisticLogin(playerId);
+        prefetchToken();
+        warmConnection();
+        if (twoPhaseAuth) {
+            openAnonymousSession();
+        }
 
         UnityPlayer.currentActivity.runOnUiThread(new Runnable() {
             @Override
             public void run() {
-                Log.d(TAG, "start activity");
+                if (silentSignIn) {
+                    // AuthServiceActivity is only started if the connection needs resolving
+                    EventTrace.record(EventTrace.Event.SilentSignIn);
+                    new AuthTask(UnityPlayer.currentActivity.getApplicationContext())
+                            .executeOnExecutor(AuthExecutor.getInstance());
+                    return;
+                }
+
+                EventTrace.record(EventTrace.Event.ActivityStart);
                 Intent intent = new Intent(UnityPlayer.currentActivity.getApplicationContext(),
                         AuthServiceActivity.class);
                 UnityPlayer.currentActivity.startActivity(intent);
@@ -80,20 +171,129 @@ public class AuthInstance {
         });
     }
 
+    /**
+     * Starts a new login attempt with every step working. Updates still on their way for an
+     * earlier attempt are dropped and the result of this one is sent to Unity once it settles.
+     */
+    public void startAttempt() {
+        transition(new AuthState.Transition() {
+            @Override
+            public AuthState apply(AuthState current) {
+                return current.nextAttempt();
+            }
+        });
+    }
+
+    /**
+     * Reports the last confirmed identity to Unity as a successful login right away. The login
+     * carries on in the background and checkStatus sends a correction if it does not confirm
+     * the same identity.
+     */
+    private void reportOptimisticLogin(String expectedServerPlayerId) {
+        optimisticIdentity = null;
+        if (!optimisticLogin) {
+            return;
+        }
+
+        IdentityStore.Identity identity = IdentityStore.getInstance(UnityPlayer.currentActivity).get();
+        if (identity == null || (expectedServerPlayerId != null && !expectedServerPlayerId.isEmpty()
+                && !expectedServerPlayerId.equals(identity.serverPlayerId))) {
+            return;
+        }
+
+        // not through setPlayerId, there is no change to report
+        this.playerId = identity.playerId;
+        this.playerName = identity.playerName;
+        this.serverPlayerId = identity.serverPlayerId;
+        setSessionToken(identity.sessionToken != null ? identity.sessionToken : "");
+        setAnonymous(identity.anonymous);
+        optimisticIdentity = identity;
+
+        EventTrace.record(EventTrace.Event.OptimisticLogin);
+        UnityPlayer.UnitySendMessage("AuthGameObject", "LoginResult", Status.Success.toString());
+    }
+
+    /**
+     * Starts fetching a token for the last signed in account while GoogleApiClient connects.
+     * If onConnected reports the same account, startOauth attaches to this fetch or finds its
+     * token cached. A different account simply never asks for it.
+     */
+    private void prefetchToken() {
+        final Activity activity = UnityPlayer.currentActivity;
+        final String lastAccount = TokenCache.getInstance(activity).getLastAccount();
+        if (lastAccount == null) {
+            return;
+        }
+
+        final String prefetchScope = getServerScope();
+        // on the I/O pool, the token task that joins this fetch waits on a scheduler thread
+        AuthExecutor.getIoExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                EventTrace.record(EventTrace.Event.TokenPrefetch);
+                try {
+                    new GetOAuthTokenTask(activity, lastAccount, prefetchScope)
+                            .setSilent(true)
+                            .fetchToken();
+                } catch (IOException | RuntimeException e) {
+                    Log.w(TAG, "token prefetch failed", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Opens the connection to the best auth endpoint while GoogleApiClient connects, server
+     * auth then sends on it.
+     */
+    private void warmConnection() {
+        String url = endpoints.getPreferredUrl(System.currentTimeMillis());
+        if (url != null) {
+            // on the I/O pool, server auth waits for it on a scheduler thread
+            connectionWarmer.warm(AuthExecutor.getIoExecutor(), transport, url);
+        }
+    }
+
+    /**
+     * Opens an anonymous server session for the stored server player id while Google sign in
+     * runs. The server auth after the token arrives upgrades it.
+     */
+    private void openAnonymousSession() {
+        if (serverPlayerId == null || serverPlayerId.isEmpty()) {
+            IdentityStore.Identity identity =
+                    IdentityStore.getInstance(UnityPlayer.currentActivity).get();
+            if (identity != null) {
+                serverPlayerId = identity.serverPlayerId;
+            }
+        }
+        ServerAuthRunner.openAnonymousSession();
+    }
+
     public void onPause() {
-        Log.d(TAG, "onPause");
+        EventTrace.record(EventTrace.Event.Pause);
+        TokenRefresher.getInstance().pause();
     }
 
     public void onResume() {
-        Log.d(TAG, "onResume");
+        EventTrace.record(EventTrace.Event.Resume);
+        TokenRefresher.getInstance().resume();
+    }
+
+    /**
+     * Stops the shared auth executor. Auth work started afterwards gets a new one.
+     */
+    public void shutdown() {
+        EventTrace.record(EventTrace.Event.Shutdown);
+        TokenRefresher.getInstance().cancel();
+        AuthExecutor.shutdown();
     }
 
     public void onCancel(final Activity activity) {
-        Log.d(TAG, "onCancel");
-        loginStatus = Status.Cancel;
-        oauthStatus = Status.Cancel;
+        EventTrace.record(EventTrace.Event.Cancel);
+        setLoginStatus(Status.Cancel);
+        setOauthStatus(Status.Cancel);
 
-        Executors.newSingleThreadExecutor().execute(new ServerAuthRunner());
+        AuthExecutor.getInstance().execute(new ServerAuthRunner());
         checkStatus();
         activity.runOnUiThread(new Runnable() {
             @Override
@@ -104,8 +304,12 @@ public class AuthInstance {
         activity.finish();
     }
 
+    /**
+     * Blocks until a token is available, prefer one of the asynchronous variants from the game
+     * thread.
+     */
     public String getAuthParams() {
-        scope = String.format("audience:server:client_id:%s", clientId);
+        scope = getServerScope();
 
         GetOAuthTokenTask task = new GetOAuthTokenTask(UnityPlayer.currentActivity, accountName, scope);
         try {
@@ -115,53 +319,305 @@ public class AuthInstance {
             return null;
         }
 
-        Map<String, String> authParams = new HashMap<>();
-        authParams.put("playerId", playerId);
-        authParams.put("serverPlayerId", serverPlayerId);
-        authParams.put("network", "GOOGLE");
-        authParams.put("playerName", playerName);
-        authParams.put("token", oauthToken);
+        return buildAuthParams();
+    }
+
+    /**
+     * Returns immediately and delivers the auth params to the callback on an auth thread,
+     * once the token is read from the cache or fetched. The token cache is encrypted
+     * preferences, so even a cache hit stays off the calling thread. The callback gets null
+     * if no token could be fetched.
+     */
+    public void getAuthParams(final AuthParamsCallback callback) {
+        scope = getServerScope();
+
+        final Activity activity = UnityPlayer.currentActivity;
+        final String account = accountName;
+        final String tokenScope = scope;
+        AuthExecutor.getInstance().execute(new Runnable() {
+            @Override
+            public void run() {
+                String params = null;
+                try {
+                    String token = new GetOAuthTokenTask(activity, account, tokenScope).fetchToken();
+                    if (token != null) {
+                        oauthToken = token;
+                        params = buildAuthParams();
+                    }
+                } catch (IOException | RuntimeException e) {
+                    Log.e(TAG, "Failed getting new oauth token");
+                }
+                callback.onAuthParams(params);
+            }
+        });
+    }
+
+    /**
+     * Unity friendly variant of {@link #getAuthParams(AuthParamsCallback)}, sends the auth
+     * params to the given game object method, or an empty string if no token could be fetched.
+     */
+    public void getAuthParamsAsync(final String gameObject, final String method) {
+        getAuthParams(new AuthParamsCallback() {
+            @Override
+            public void onAuthParams(String authParams) {
+                UnityPlayer.UnitySendMessage(gameObject, method, authParams != null ? authParams : "");
+            }
+        });
+    }
+
+    /**
+     * Fetches tokens for several scopes of the signed in account at once, each scope in its own
+     * task on the auth executor. Cached tokens are used as they are, the rest are fetched and
+     * cached under their own scope. The callback runs once, on an auth thread after the last
+     * scope is done.
+     */
+    public void getTokens(String[] scopes, final TokensCallback callback) {
+        final Activity activity = UnityPlayer.currentActivity;
+        final String account = accountName;
+        final Map<String, String> tokens = new ConcurrentHashMap<>();
+        final List<String> order = Arrays.asList(scopes);
+        final List<String> distinct = new ArrayList<>();
+        for (String tokenScope : scopes) {
+            if (!distinct.contains(tokenScope)) {
+                distinct.add(tokenScope);
+            }
+        }
+
+        if (distinct.isEmpty()) {
+            AuthExecutor.getInstance().execute(new Runnable() {
+                @Override
+                public void run() {
+                    callback.onTokens(inOrder(order, tokens));
+                }
+            });
+            return;
+        }
 
-        return new Gson().toJson(authParams);
+        final AtomicInteger remaining = new AtomicInteger(distinct.size());
+        for (final String tokenScope : distinct) {
+            AuthExecutor.getInstance().execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        // looks in TokenCache before fetching
+                        String token = new GetOAuthTokenTask(activity, account, tokenScope)
+                                .fetchToken();
+                        if (token != null) {
+                            tokens.put(tokenScope, token);
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        Log.e(TAG, "Failed getting token for one scope", e);
+                    }
+
+                    if (remaining.decrementAndGet() == 0) {
+                        callback.onTokens(inOrder(order, tokens));
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Unity friendly variant of {@link #getTokens(String[], TokensCallback)}, sends a JSON
+     * object of scope to token to the given game object method.
+     */
+    public void getTokensAsync(String[] scopes, final String gameObject, final String method) {
+        getTokens(scopes, new TokensCallback() {
+            @Override
+            public void onTokens(Map<String, String> tokens) {
+                UnityPlayer.UnitySendMessage(gameObject, method, GSON.toJson(tokens));
+            }
+        });
+    }
+
+    private static Map<String, String> inOrder(List<String> scopes, Map<String, String> tokens) {
+        Map<String, String> ordered = new LinkedHashMap<>();
+        for (String tokenScope : scopes) {
+            String token = tokens.get(tokenScope);
+            if (token != null) {
+                ordered.put(tokenScope, token);
+            }
+        }
+        return ordered;
+    }
+
+    private String buildAuthParams() {
+        return AuthCodec.getInstance().toJson(
+                new RequestPojo(playerId, serverPlayerId, "GOOGLE", playerName, oauthToken));
     }
 
     public void startOauth() {
-        Log.d(AuthInstance.TAG, "startOauth");
+        EventTrace.record(EventTrace.Event.StartOauth);
 
-        String scope = String.format("audience:server:client_id:%s",  clientId);
-        Log.d(AuthInstance.TAG, "Scope: " + scope);
+        scope = getServerScope();
 
         new GetOAuthTokenTask(UnityPlayer.currentActivity, accountName, scope)
-                .execute();
+                .executeOnExecutor(AuthExecutor.getInstance());
+    }
+
+    /**
+     * Invalidation hook for when our server rejects the current OAuth token. Drops it from the
+     * token cache and clears it from Play Services so the next fetch gets a fresh one.
+     */
+    public void invalidateOauthToken() {
+        final String account = accountName;
+        final String tokenScope = scope != null ? scope : getServerScope();
+        final String token = oauthToken;
+        oauthToken = null;
+
+        AuthExecutor.getInstance().execute(new Runnable() {
+            @Override
+            public void run() {
+                TokenCache.getInstance(UnityPlayer.currentActivity)
+                        .invalidate(account, tokenScope, token);
+            }
+        });
     }
 
+    private String getServerScope() {
+        return String.format("audience:server:client_id:%s", clientId);
+    }
+
+    /**
+     * Sends the login result to Unity once every step has finished. Safe to call from any
+     * thread, the result of an attempt is delivered exactly once.
+     */
     public void checkStatus() {
-        if (loginStatus.equals(Status.Working) || oauthStatus.equals(Status.Working)
-                || serverAuthStatus.equals(Status.Working)) {
-            Log.d(TAG, "not ready to update unity");
-        } else if (loginStatus.equals(Status.Success) && oauthStatus.equals(Status.Success)
-                && serverAuthStatus.equals(Status.Success)) {
-            anonymous = false;
-            Log.d(TAG, "login success");
-            UnityPlayer.UnitySendMessage("AuthGameObject", "LoginResult", Status.Success.toString());
-        } else if (serverAuthStatus.equals(Status.Success) && (loginStatus.equals(Status.Cancel) || oauthStatus.equals(Status.Cancel))) {
-            anonymous = true;
-
-            Log.d(TAG, "login cancelled");
-            UnityPlayer.UnitySendMessage("AuthGameObject", "LoginResult", Status.Cancel.toString());
-        } else if (serverAuthStatus.equals(Status.Failure)) {
-            anonymous = true;
-
-            Log.e(TAG, "login failed");
-            UnityPlayer.UnitySendMessage("AuthGameObject", "LoginResult", Status.Failure.toString());
+        while (true) {
+            AuthState current = state.get();
+            Status result = current.result();
+            if (result == null) {
+                EventTrace.record(EventTrace.Event.StatusNotReady);
+                return;
+            }
+
+            if (state.compareAndSet(current, current.deliver(result))) {
+                if (result == Status.Success) {
+                    rememberIdentity();
+                }
+
+                IdentityStore.Identity optimistic = optimisticIdentity;
+                optimisticIdentity = null;
+                if (optimistic != null) {
+                    if (result == Status.Success && isSameIdentity(optimistic)) {
+                        EventTrace.record(EventTrace.Event.OptimisticConfirmed);
+                        return;
+                    }
+
+                    EventTrace.record(EventTrace.Event.OptimisticCorrected);
+                    // a different Google player was already reported by setPlayerId
+                    if (equal(optimistic.playerId, playerId)) {
+                        UnityPlayer.UnitySendMessage("AuthGameObject", "PlayerChange", "true");
+                    }
+                }
+
+                EventTrace.record(EventTrace.Event.LoginResult, result.ordinal());
+                if (result == Status.Failure) {
+                    Log.e(TAG, "login failed, auth trace:\n" + EventTrace.dump());
+                }
+
+                AuthMetrics metrics = AuthMetrics.getInstance();
+                long dispatchStart = AuthMetrics.now();
+                UnityPlayer.UnitySendMessage("AuthGameObject", "LoginResult", result.toString());
+                metrics.record(AuthMetrics.Phase.Dispatch, dispatchStart);
+                if (metrics.getLoginStart() != 0) {
+                    metrics.record(AuthMetrics.Phase.Login, metrics.getLoginStart());
+                }
+                return;
+            }
+        }
+    }
+
+    private void rememberIdentity() {
+        final String confirmedPlayerId = playerId;
+        final String confirmedServerPlayerId = serverPlayerId;
+        final String confirmedPlayerName = playerName;
+        final AuthState confirmed = state.get();
+        AuthExecutor.getInstance().execute(new Runnable() {
+            @Override
+            public void run() {
+                IdentityStore.getInstance(UnityPlayer.currentActivity).put(confirmedPlayerId,
+                        confirmedServerPlayerId, confirmedPlayerName, confirmed.anonymous,
+                        confirmed.sessionToken);
+            }
+        });
+    }
+
+    private boolean isSameIdentity(IdentityStore.Identity identity) {
+        return equal(identity.playerId, playerId)
+                && equal(identity.serverPlayerId, serverPlayerId);
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /**
+     * Returns the recent auth events, oldest first, one "time event arg" line each with times
+     * in ms since boot. Empty when tracing is compiled out.
+     */
+    public String getTrace() {
+        return EventTrace.dump();
+    }
+
+    /**
+     * Returns login latency per phase (count, p50, p95, p99 and max in ms) and retry, failure
+     * and token cache hit counters as one JSON object.
+     */
+    public String getMetrics() {
+        return AuthMetrics.getInstance().snapshot();
+    }
+
+    private AuthState transition(AuthState.Transition transition) {
+        while (true) {
+            AuthState current = state.get();
+            AuthState next = transition.apply(current);
+            if (state.compareAndSet(current, next)) {
+                return next;
+            }
+        }
+    }
+
+    // applies the transition only while the given attempt is still the current one
+    private boolean transition(int attempt, AuthState.Transition transition) {
+        while (true) {
+            AuthState current = state.get();
+            if (current.attempt != attempt) {
+                EventTrace.record(EventTrace.Event.StaleUpdate, attempt);
+                return false;
+            }
+            if (state.compareAndSet(current, transition.apply(current))) {
+                return true;
+            }
         }
     }
 
+    /**
+     * Queues the achievement unlock, it is sent once the client is connected and kept across
+     * restarts until then. Does not open any UI, see {@link #showAchievements()}.
+     */
     public void awardAchievement(String achievementId) {
-        Games.Achievements.unlock(googleApiClient, achievementId);
+        AchievementQueue.getInstance(UnityPlayer.currentActivity).unlock(achievementId);
+    }
+
+    /**
+     * Opens the achievements UI. Calls in quick succession open it once.
+     */
+    public void showAchievements() {
+        AchievementQueue.getInstance(UnityPlayer.currentActivity).showAchievements();
+    }
 
-        UnityPlayer.currentActivity.startActivityForResult(
-                Games.Achievements.getAchievementsIntent(googleApiClient), REQUEST_ACHIEVEMENTS);
+    /**
+     * Queues a score for a leaderboard where higher is better. Scores that cannot beat the
+     * best one submitted or queued are dropped, the rest are sent in batches while connected.
+     */
+    public boolean submitScore(String leaderboardId, long score) {
+        return submitScore(leaderboardId, score, false);
+    }
+
+    public boolean submitScore(String leaderboardId, long score, boolean lowerIsBetter) {
+        return ScoreQueue.getInstance(UnityPlayer.currentActivity)
+                .submit(leaderboardId, score, lowerIsBetter);
     }
 
     public String getOauthToken() {
@@ -169,17 +625,38 @@ public class AuthInstance {
     }
 
     public void setOauthToken(String token) {
+        setOauthToken(state.get().attempt, token);
+    }
+
+    /**
+     * Takes the token fetched for the given attempt and runs server auth with it. A token that
+     * arrives after a newer attempt has started is dropped, that attempt fetches its own.
+     */
+    public void setOauthToken(int attempt, String token) {
+        if (state.get().attempt != attempt) {
+            EventTrace.record(EventTrace.Event.StaleUpdate, attempt);
+            return;
+        }
+
         oauthToken = token;
         if(oauthToken != null && !oauthToken.isEmpty() && !oauthToken.equals("null")) {
-            oauthStatus = Status.Success;
+            setOauthStatus(attempt, Status.Success);
+            TokenRefresher.getInstance().scheduleTokenRefresh();
         } else {
-            oauthStatus = Status.Failure;
+            setOauthStatus(attempt, Status.Failure);
         }
 
-        Executors.newSingleThreadExecutor().execute(new ServerAuthRunner());
+        AuthExecutor.getInstance().execute(new ServerAuthRunner());
         checkStatus();
     }
 
+    /**
+     * Swaps in a refreshed token without starting a new login.
+     */
+    public void updateOauthToken(String token) {
+        oauthToken = token;
+    }
+
     public String getFailureError() {
         return failureError;
     }
@@ -195,7 +672,7 @@ public class AuthInstance {
     public void setPlayerId(String playerId) {
         if(this.playerId != null) {
             if(!this.playerId.equals(playerId)) {
-                Log.d(TAG, "New playerId found: " +playerId);
+                EventTrace.record(EventTrace.Event.PlayerChange);
                 UnityPlayer.UnitySendMessage("AuthGameObject", "PlayerChange", "true");
             }
         }
@@ -219,19 +696,61 @@ public class AuthInstance {
     }
 
     public String getSessionToken() {
-        return sessionToken;
+        return state.get().sessionToken;
     }
 
     public void setSessionToken(String sessionToken) {
-        this.sessionToken = sessionToken;
+        setSessionToken(state.get().attempt, sessionToken);
+    }
+
+    public void setSessionToken(int attempt, final String sessionToken) {
+        transition(attempt, new AuthState.Transition() {
+            @Override
+            public AuthState apply(AuthState current) {
+                return current.withSessionToken(sessionToken);
+            }
+        });
+    }
+
+    /**
+     * Takes the session opened by the anonymous phase of the given attempt, unless the attempt
+     * already finished server auth, whose session it must not replace. Returns whether it was
+     * taken.
+     */
+    public boolean setAnonymousSession(int attempt, String sessionToken) {
+        while (true) {
+            AuthState current = state.get();
+            if (current.attempt != attempt) {
+                EventTrace.record(EventTrace.Event.StaleUpdate, attempt);
+                return false;
+            }
+            if (current.serverAuthStatus == Status.Success) {
+                return false;
+            }
+
+            AuthState next = sessionToken != null
+                    ? current.withSessionToken(sessionToken) : current;
+            if (next == current || state.compareAndSet(current, next)) {
+                return true;
+            }
+        }
     }
 
     public boolean isAnonymous() {
-        return anonymous;
+        return state.get().anonymous;
     }
 
     public void setAnonymous(boolean anonymous) {
-        this.anonymous = anonymous;
+        setAnonymous(state.get().attempt, anonymous);
+    }
+
+    public void setAnonymous(int attempt, final boolean anonymous) {
+        transition(attempt, new AuthState.Transition() {
+            @Override
+            public AuthState apply(AuthState current) {
+                return current.withAnonymous(anonymous);
+            }
+        });
     }
 
     public String getAccountName() {
@@ -240,6 +759,7 @@ public class AuthInstance {
 
     public void setAccountName(String accountName) {
         this.accountName = accountName;
+        TokenCache.getInstance(UnityPlayer.currentActivity).setLastAccount(accountName);
     }
 
     public String getScope() {
@@ -250,20 +770,216 @@ public class AuthInstance {
         return serverUrl;
     }
 
+    public EndpointSelector getEndpoints() {
+        return endpoints;
+    }
+
+    public long getHedgeDelay() {
+        return hedgeDelay;
+    }
+
+    /**
+     * With more than one endpoint, sends a second auth request to the next best endpoint if the
+     * first has not answered after this many milliseconds, and takes whichever answers first.
+     * 0, the default, turns hedging off.
+     */
+    public void setHedgeDelay(long hedgeDelay) {
+        this.hedgeDelay = hedgeDelay;
+    }
+
     public String getClientId() {
         return clientId;
     }
 
+    /**
+     * Sets the status for the current attempt.
+     */
     public void setLoginStatus(Status loginStatus) {
-        this.loginStatus = loginStatus;
+        setLoginStatus(state.get().attempt, loginStatus);
+    }
+
+    /**
+     * Sets the status for the given attempt, ignored once a newer attempt has started so a
+     * late callback cannot change it.
+     */
+    public void setLoginStatus(int attempt, final Status loginStatus) {
+        transition(attempt, new AuthState.Transition() {
+            @Override
+            public AuthState apply(AuthState current) {
+                return current.withLoginStatus(loginStatus);
+            }
+        });
     }
 
     public void setOauthStatus(Status oauthStatus) {
-        this.oauthStatus = oauthStatus;
+        setOauthStatus(state.get().attempt, oauthStatus);
+    }
+
+    public void setOauthStatus(int attempt, final Status oauthStatus) {
+        transition(attempt, new AuthState.Transition() {
+            @Override
+            public AuthState apply(AuthState current) {
+                return current.withOauthStatus(oauthStatus);
+            }
+        });
     }
 
     public void setServerAuthStatus(Status serverAuthStatus) {
-        this.serverAuthStatus = serverAuthStatus;
+        setServerAuthStatus(state.get().attempt, serverAuthStatus);
+    }
+
+    public void setServerAuthStatus(int attempt, final Status serverAuthStatus) {
+        transition(attempt, new AuthState.Transition() {
+            @Override
+            public AuthState apply(AuthState current) {
+                return current.withServerAuthStatus(serverAuthStatus);
+            }
+        });
+    }
+
+    /**
+     * Returns the current auth snapshot.
+     */
+    public AuthState getState() {
+        return state.get();
+    }
+
+    public boolean isSilentSignIn() {
+        return silentSignIn;
+    }
+
+    /**
+     * With silent sign in, init() connects GoogleApiClient from the application context and
+     * only launches AuthServiceActivity when a ConnectionResult needs resolution.
+     */
+    public void setSilentSignIn(boolean silentSignIn) {
+        this.silentSignIn = silentSignIn;
+    }
+
+    public boolean isBinaryWireFormat() {
+        return binaryWireFormat;
+    }
+
+    /**
+     * Offers the compact binary format for server auth through Accept. A server that answers
+     * in binary gets binary requests from then on, any other server keeps getting JSON.
+     */
+    public void setBinaryWireFormat(boolean binaryWireFormat) {
+        this.binaryWireFormat = binaryWireFormat;
+    }
+
+    public boolean isTwoPhaseAuth() {
+        return twoPhaseAuth;
+    }
+
+    /**
+     * With two phase auth, init() opens an anonymous server session right away, in parallel
+     * with Google sign in, and sends SessionReady with the server player id to Unity once it
+     * exists. The server auth that runs when the OAuth token arrives upgrades that session.
+     */
+    public void setTwoPhaseAuth(boolean twoPhaseAuth) {
+        this.twoPhaseAuth = twoPhaseAuth;
+    }
+
+    public boolean isOptimisticLogin() {
+        return optimisticLogin;
+    }
+
+    /**
+     * With optimistic login, init() reports the last identity our server confirmed to Unity as
+     * a successful LoginResult straight away and verifies it in the background. If the login
+     * fails or comes back with a different player, Unity gets PlayerChange followed by the real
+     * LoginResult.
+     */
+    public void setOptimisticLogin(boolean optimisticLogin) {
+        this.optimisticLogin = optimisticLogin;
+    }
+
+    public SessionStore.ResumeMode getSessionResumeMode() {
+        return sessionResumeMode;
+    }
+
+    /**
+     * Sets how a stored server session is resumed on the next login, one of None, Trust or
+     * Validate. Takes a string so it can be called from Unity.
+     */
+    public void setSessionResumeMode(String sessionResumeMode) {
+        if (sessionResumeMode != null) {
+            try {
+                this.sessionResumeMode = SessionStore.ResumeMode.valueOf(sessionResumeMode);
+                return;
+            } catch (IllegalArgumentException e) {
+                // not one of the modes, warn below
+            }
+        }
+        Log.w(TAG, "Unknown session resume mode " + sessionResumeMode + ", keeping "
+                + this.sessionResumeMode);
+    }
+
+    public String getSessionCookieName() {
+        return sessionCookieName;
+    }
+
+    /**
+     * Name of the cookie our server keeps the session in. It is the cookie that is stored and
+     * resumed when a response sets several. Without a name the last cookie set is taken.
+     */
+    public void setSessionCookieName(String sessionCookieName) {
+        this.sessionCookieName = sessionCookieName;
+    }
+
+    public String getSessionValidationUrl() {
+        return sessionValidationUrl;
+    }
+
+    /**
+     * Url that answers 200 to a GET carrying a still valid session cookie, used by the
+     * Validate resume mode. Without it Validate behaves like Trust.
+     */
+    public void setSessionValidationUrl(String sessionValidationUrl) {
+        this.sessionValidationUrl = sessionValidationUrl;
+    }
+
+    public ConnectionWarmer getConnectionWarmer() {
+        return connectionWarmer;
+    }
+
+    public AuthTransport getTransport() {
+        return transport;
+    }
+
+    /**
+     * Returns the HTTP client for game API calls. It shares the auth connections and cookies,
+     * attaches the session and re-authenticates once on a 401.
+     */
+    public AuthHttpClient getHttpClient() {
+        return httpClient;
+    }
+
+    /**
+     * Returns the cookie jar holding our servers' cookies, including the session, or null
+     * before init().
+     */
+    public CookieStore getCookieJar() {
+        CookieHandler cookies = transport.getCookieHandler();
+        return cookies instanceof CookieManager ? ((CookieManager) cookies).getCookieStore() : null;
+    }
+
+    /**
+     * Replaces the transport used to talk to our server, e.g. with a local stub in tests.
+     * Passing null restores the default pooled HTTP transport. The cookie jar stays in front
+     * of whichever transport is set.
+     */
+    public void setTransport(AuthTransport transport) {
+        this.transport.setDelegate(transport != null ? transport : httpTransport);
+    }
+
+    /**
+     * Sets the connect and read timeouts of the default HTTP transport, in milliseconds.
+     */
+    public void setTimeouts(int connectTimeoutMs, int readTimeoutMs) {
+        httpTransport.setConnectTimeout(connectTimeoutMs);
+        httpTransport.setReadTimeout(readTimeoutMs);
     }
 
     public GoogleApiClient getGoogleApiClient() {
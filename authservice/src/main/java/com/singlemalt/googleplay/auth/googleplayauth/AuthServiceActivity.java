@@ -10,23 +10,23 @@ import android.util.Log;
 
 import com.google.android.gms.common.GoogleApiAvailability;
 import com.google.android.gms.common.api.GoogleApiClient;
-import com.google.android.gms.games.Games;
-import com.google.android.gms.games.Player;
+import com.singlemalt.googleplay.auth.googleplayauth.concurrent.AuthExecutor;
+import com.singlemalt.googleplay.auth.googleplayauth.metrics.AuthMetrics;
+import com.singlemalt.googleplay.auth.googleplayauth.metrics.EventTrace;
 import com.singlemalt.googleplay.auth.googleplayauth.runners.ServerAuthRunner;
 import com.singlemalt.googleplay.auth.googleplayauth.tasks.AuthTask;
 import com.google.android.gms.common.ConnectionResult;
 import com.unity3d.player.UnityPlayer;
 
-import java.util.concurrent.Executors;
-
 /**
  * Created by singlemalt on 3/28/16.
  */
 public class AuthServiceActivity extends Activity implements
-        GoogleApiClient.ConnectionCallbacks,
         GoogleApiClient.OnConnectionFailedListener
 {
     public static final int REQUEST_RESOLVE_ERROR = 1001;
+    // ConnectionResult a headless sign in needs resolved
+    public static final String EXTRA_CONNECTION_RESULT = "connectionResult";
 
     // callback classes
     private class AlertGooglePlayStatus implements Runnable {
@@ -59,31 +59,31 @@ public class AuthServiceActivity extends Activity implements
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
-        Log.d(AuthInstance.TAG, "Starting auth");
-
         super.onCreate(savedInstanceState);
-        new AuthTask(this).execute();
+        if (AuthMetrics.getInstance().getLoginStart() != 0) {
+            AuthMetrics.getInstance().record(AuthMetrics.Phase.ActivityLaunch,
+                    AuthMetrics.getInstance().getLoginStart());
+        }
+        SignInCallbacks.getInstance().attach(this);
+
+        ConnectionResult pending = getIntent().getParcelableExtra(EXTRA_CONNECTION_RESULT);
+        if (pending != null) {
+            onConnectionFailed(pending);
+        } else {
+            new AuthTask(getApplicationContext()).executeOnExecutor(AuthExecutor.getInstance());
+        }
     }
 
-    // implement callbacks
     @Override
-    public void onConnected(Bundle bundle) {
-        Log.d(AuthInstance.TAG, "onConnected");
-
-        AuthInstance.getInstance().setAccountName(
-                Games.getCurrentAccountName(AuthInstance.getInstance().getGoogleApiClient()));
-
-        Player player = Games.Players.getCurrentPlayer(AuthInstance.getInstance().getGoogleApiClient());
-
-        Log.d(AuthInstance.TAG, "playerId: "+player.getPlayerId());
-        Log.d(AuthInstance.TAG, "playerName: "+player.getDisplayName());
-
-        AuthInstance.getInstance().setPlayerId(player.getPlayerId());
-        AuthInstance.getInstance().setPlayerName(player.getDisplayName());
-        AuthInstance.getInstance().startOauth();
-        AuthInstance.getInstance().setLoginStatus(AuthInstance.Status.Success);
-        AuthInstance.getInstance().checkStatus();
+    protected void onDestroy() {
+        SignInCallbacks.getInstance().detach(this);
+        super.onDestroy();
+    }
 
+    /**
+     * Goes back to the game once sign in has connected.
+     */
+    public void returnToGame() {
         this.runOnUiThread(new Runnable() {
             @Override
             public void run() {
@@ -94,19 +94,12 @@ public class AuthServiceActivity extends Activity implements
         this.finish();
     }
 
-    @Override
-    public void onConnectionSuspended(int i) {
-        Log.d(AuthInstance.TAG, "onConnectionSuspended");
-
-        new AuthTask(this).execute();
-    }
-
     @Override
     public void onConnectionFailed(ConnectionResult connectionResult) {
-        Log.d(AuthInstance.TAG, "onConnectionFailed");
+        EventTrace.record(EventTrace.Event.ConnectionFailed, connectionResult.getErrorCode());
 
         if(resolvingError) {
-            Log.d(AuthInstance.TAG, "onConnectionFailed currently resolving");
+            EventTrace.record(EventTrace.Event.ResolveInProgress);
             return;
         }
 
@@ -115,7 +108,7 @@ public class AuthServiceActivity extends Activity implements
 
         if(connectionResult.hasResolution()) {
             try {
-                Log.d(AuthInstance.TAG, "onConnectionFailed resolving");
+                EventTrace.record(EventTrace.Event.ResolveStart);
                 resolvingError = true;
                 connectionResult.startResolutionForResult(this, REQUEST_RESOLVE_ERROR);
             } catch (IntentSender.SendIntentException e) {
@@ -124,7 +117,7 @@ public class AuthServiceActivity extends Activity implements
                 AuthInstance.getInstance().getGoogleApiClient().connect();
             }
         } else {
-            Log.d(AuthInstance.TAG, "onConnectionFailed no resolution");
+            EventTrace.record(EventTrace.Event.ResolveUnavailable);
             resolvingError = true;
             this.runOnUiThread(new AlertGooglePlayStatus(this, connectionResult.getErrorCode()));
             this.finish();
@@ -135,19 +128,18 @@ public class AuthServiceActivity extends Activity implements
     protected void onActivityResult(int requestCode, int resultCode, Intent data) {
         if(requestCode == REQUEST_RESOLVE_ERROR) {
             resolvingError = false;
+            EventTrace.record(EventTrace.Event.ResolveResult, resultCode);
             if(resultCode == RESULT_OK) {
-                Log.d(AuthInstance.TAG, "onActivityResult is ok");
                 if (!AuthInstance.getInstance().getGoogleApiClient().isConnecting() &&
                         !AuthInstance.getInstance().getGoogleApiClient().isConnected()) {
                     AuthInstance.getInstance().getGoogleApiClient().connect();
                 }
             } else {
                 // player cancelled login
-                Log.d(AuthInstance.TAG, "player cancelled login");
                 AuthInstance.getInstance().setLoginStatus(AuthInstance.Status.Cancel);
                 AuthInstance.getInstance().setOauthStatus(AuthInstance.Status.Cancel);
 
-                Executors.newSingleThreadExecutor().execute(new ServerAuthRunner());
+                AuthExecutor.getInstance().execute(new ServerAuthRunner());
                 AuthInstance.getInstance().checkStatus();
                 this.runOnUiThread(new Runnable() {
                     @Override
@@ -0,0 +1,99 @@
+package com.singlemalt.googleplay.auth.googleplayauth;
+
+import com.singlemalt.googleplay.auth.googleplayauth.AuthInstance.Status;
+
+/**
+ * Immutable snapshot of one auth attempt. AuthInstance swaps snapshots with compare-and-set, so
+ * callback threads never lock and the result is delivered exactly once per attempt.
+ */
+public final class AuthState {
+    public interface Transition {
+        AuthState apply(AuthState current);
+    }
+
+    public final int attempt;
+    public final Status loginStatus;
+    public final Status oauthStatus;
+    public final Status serverAuthStatus;
+    public final boolean anonymous;
+    public final String sessionToken;
+    // result sent to Unity for this attempt, null until delivered
+    public final Status delivered;
+
+    private AuthState(int attempt, Status loginStatus, Status oauthStatus, Status serverAuthStatus,
+                      boolean anonymous, String sessionToken, Status delivered) {
+        this.attempt = attempt;
+        this.loginStatus = loginStatus;
+        this.oauthStatus = oauthStatus;
+        this.serverAuthStatus = serverAuthStatus;
+        this.anonymous = anonymous;
+        this.sessionToken = sessionToken;
+        this.delivered = delivered;
+    }
+
+    public static AuthState initial() {
+        return new AuthState(0, null, null, null, true, "", null);
+    }
+
+    /**
+     * Starts a new attempt with every step working, keeping the session we already hold.
+     */
+    public AuthState nextAttempt() {
+        return new AuthState(attempt + 1, Status.Working, Status.Working, Status.Working,
+                anonymous, sessionToken, null);
+    }
+
+    public AuthState withLoginStatus(Status status) {
+        return new AuthState(attempt, status, oauthStatus, serverAuthStatus, anonymous,
+                sessionToken, delivered);
+    }
+
+    public AuthState withOauthStatus(Status status) {
+        return new AuthState(attempt, loginStatus, status, serverAuthStatus, anonymous,
+                sessionToken, delivered);
+    }
+
+    public AuthState withServerAuthStatus(Status status) {
+        return new AuthState(attempt, loginStatus, oauthStatus, status, anonymous,
+                sessionToken, delivered);
+    }
+
+    public AuthState withAnonymous(boolean value) {
+        return new AuthState(attempt, loginStatus, oauthStatus, serverAuthStatus, value,
+                sessionToken, delivered);
+    }
+
+    public AuthState withSessionToken(String token) {
+        return new AuthState(attempt, loginStatus, oauthStatus, serverAuthStatus, anonymous,
+                token, delivered);
+    }
+
+    /**
+     * Returns the result this snapshot resolves to, or null while a step is still working, no
+     * attempt was started or the result has already been delivered.
+     */
+    public Status result() {
+        if (delivered != null || loginStatus == null
+                || loginStatus == Status.Working || oauthStatus == Status.Working
+                || serverAuthStatus == Status.Working) {
+            return null;
+        }
+
+        if (loginStatus == Status.Success && oauthStatus == Status.Success
+                && serverAuthStatus == Status.Success) {
+            return Status.Success;
+        } else if (serverAuthStatus == Status.Success
+                && (loginStatus == Status.Cancel || oauthStatus == Status.Cancel)) {
+            return Status.Cancel;
+        }
+        return Status.Failure;
+    }
+
+    /**
+     * Marks the result as delivered, anything but a full success leaves the player anonymous.
+     */
+    public AuthState deliver(Status result) {
+        return new AuthState(attempt, loginStatus, oauthStatus, serverAuthStatus,
+                result != Status.Success, sessionToken, result);
+    }
+}
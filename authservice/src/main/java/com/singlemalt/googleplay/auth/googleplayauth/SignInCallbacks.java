@@ -0,0 +1,204 @@
+package com.singlemalt.googleplay.auth.googleplayauth;
+
+import android.app.Activity;
+import android.content.Intent;
+import android.os.Bundle;
+
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.games.Games;
+import com.google.android.gms.games.Player;
+import com.singlemalt.googleplay.auth.googleplayauth.cache.SessionStore;
+import com.singlemalt.googleplay.auth.googleplayauth.cache.TokenCache;
+import com.singlemalt.googleplay.auth.googleplayauth.concurrent.AuthExecutor;
+import com.singlemalt.googleplay.auth.googleplayauth.games.AchievementQueue;
+import com.singlemalt.googleplay.auth.googleplayauth.games.ScoreQueue;
+import com.singlemalt.googleplay.auth.googleplayauth.lifecycle.WeakHandle;
+import com.singlemalt.googleplay.auth.googleplayauth.metrics.AuthMetrics;
+import com.singlemalt.googleplay.auth.googleplayauth.metrics.EventTrace;
+import com.singlemalt.googleplay.auth.googleplayauth.net.RetryPolicy;
+import com.unity3d.player.UnityPlayer;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Application scoped GoogleApiClient callbacks. They handle sign in without any activity, and
+ * only hand over to AuthServiceActivity when a ConnectionResult needs the user to resolve it.
+ */
+public class SignInCallbacks implements
+        GoogleApiClient.ConnectionCallbacks,
+        GoogleApiClient.OnConnectionFailedListener
+{
+    private static final SignInCallbacks ourInstance = new SignInCallbacks();
+    private static final RetryPolicy reconnectPolicy = new RetryPolicy(6, 1000, 60000);
+
+    // reconnect attempt after a suspension, 0 when the client is not reconnecting
+    private final AtomicInteger reconnectAttempt = new AtomicInteger(0);
+
+    // activity currently resolving a connection failure, if any
+    private final WeakHandle<AuthServiceActivity> activity = new WeakHandle<>();
+
+    public static SignInCallbacks getInstance() {
+        return ourInstance;
+    }
+
+    private SignInCallbacks() { }
+
+    public void attach(AuthServiceActivity activity) {
+        this.activity.set(activity);
+    }
+
+    public void detach(AuthServiceActivity activity) {
+        this.activity.clear(activity);
+    }
+
+    @Override
+    public void onConnected(Bundle bundle) {
+        EventTrace.record(EventTrace.Event.Connected);
+        AuthMetrics.getInstance().recordConnected();
+        final long start = AuthMetrics.now();
+        boolean reconnected = reconnectAttempt.getAndSet(0) > 0;
+
+        GoogleApiClient client = AuthInstance.getInstance().getGoogleApiClient();
+        final String account = Games.getCurrentAccountName(client);
+        Player player = Games.Players.getCurrentPlayer(client);
+        final String playerId = player.getPlayerId();
+        final String playerName = player.getDisplayName();
+
+        if (!reconnected) {
+            signIn(account, playerId, playerName, start);
+            return;
+        }
+
+        // checking the credentials decrypts the stored session and token, not on the main thread
+        AuthExecutor.getInstance().execute(new Runnable() {
+            @Override
+            public void run() {
+                if (hasValidCredentials(account, playerId)) {
+                    // same player with a live token and session, nothing to redo
+                    EventTrace.record(EventTrace.Event.Reconnected);
+                    AchievementQueue.getInstance(UnityPlayer.currentActivity).flush();
+                    ScoreQueue.getInstance(UnityPlayer.currentActivity).flush();
+                    return;
+                }
+
+                // the last attempt already reported its result, Unity gets one for this sign in
+                AuthInstance.getInstance().startAttempt();
+                UnityPlayer.currentActivity.runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        signIn(account, playerId, playerName, start);
+                    }
+                });
+            }
+        });
+    }
+
+    private void signIn(String account, String playerId, String playerName, long start) {
+        AuthInstance.getInstance().setAccountName(account);
+
+        AuthInstance.getInstance().setPlayerId(playerId);
+        AuthInstance.getInstance().setPlayerName(playerName);
+        AuthInstance.getInstance().startOauth();
+        AuthInstance.getInstance().setLoginStatus(AuthInstance.Status.Success);
+        AuthInstance.getInstance().checkStatus();
+        AuthMetrics.getInstance().record(AuthMetrics.Phase.OnConnected, start);
+        AchievementQueue.getInstance(UnityPlayer.currentActivity).flush();
+        ScoreQueue.getInstance(UnityPlayer.currentActivity).flush();
+
+        AuthServiceActivity current = activity.get();
+        if (current != null) {
+            current.returnToGame();
+        }
+    }
+
+    /**
+     * Reconnects the client with backoff and keeps the token and session we hold, onConnected
+     * only signs in again if they are no longer valid.
+     */
+    @Override
+    public void onConnectionSuspended(int i) {
+        EventTrace.record(EventTrace.Event.ConnectionSuspended, i);
+
+        if (reconnectAttempt.compareAndSet(0, 1)) {
+            reconnect(0);
+        }
+    }
+
+    @Override
+    public void onConnectionFailed(ConnectionResult connectionResult) {
+        EventTrace.record(EventTrace.Event.ConnectionFailed, connectionResult.getErrorCode());
+
+        // a transient failure while reconnecting, try again later without bothering the user
+        int attempt = reconnectAttempt.get();
+        if (attempt > 0 && !connectionResult.hasResolution()) {
+            long delay = reconnectPolicy.delayFor(attempt);
+            if (delay != RetryPolicy.NO_RETRY
+                    && reconnectAttempt.compareAndSet(attempt, attempt + 1)) {
+                reconnect(delay);
+                return;
+            }
+        }
+        reconnectAttempt.set(0);
+        AuthServiceActivity current = activity.get();
+        if (current != null) {
+            current.onConnectionFailed(connectionResult);
+            return;
+        }
+
+        // headless sign in needs the user now, bring up the activity to resolve it
+        final Activity unityActivity = UnityPlayer.currentActivity;
+        final Intent intent = new Intent(unityActivity.getApplicationContext(), AuthServiceActivity.class)
+                .putExtra(AuthServiceActivity.EXTRA_CONNECTION_RESULT, connectionResult);
+        unityActivity.runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                unityActivity.startActivity(intent);
+            }
+        });
+    }
+
+    private void reconnect(long delay) {
+        AuthExecutor.getInstance().schedule(new Runnable() {
+            @Override
+            public void run() {
+                GoogleApiClient client = AuthInstance.getInstance().getGoogleApiClient();
+                if (client == null || client.isConnected()) {
+                    // nothing left to reconnect, the next suspension starts over
+                    reconnectAttempt.set(0);
+                    return;
+                }
+                if (!client.isConnecting()) {
+                    EventTrace.record(EventTrace.Event.Reconnect, reconnectAttempt.get());
+                    AuthMetrics.getInstance().markConnectStart();
+                    client.connect();
+                }
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private static boolean hasValidCredentials(String account, String playerId) {
+        AuthInstance auth = AuthInstance.getInstance();
+        if (account == null || !account.equals(auth.getAccountName())
+                || playerId == null || !playerId.equals(auth.getPlayerId())
+                || auth.getState().serverAuthStatus != AuthInstance.Status.Success) {
+            return false;
+        }
+
+        // the session we hold must be the stored one and not about to expire, a session
+        // cookie without an expiry is never stored so it always gets a fresh auth
+        SessionStore.Session session = SessionStore.getInstance(UnityPlayer.currentActivity).get();
+        if (session == null || !session.cookieValue.equals(auth.getSessionToken())) {
+            return false;
+        }
+
+        String token = TokenCache.getInstance(UnityPlayer.currentActivity)
+                .get(account, auth.getScope());
+        if (token == null) {
+            return false;
+        }
+        auth.updateOauthToken(token);
+        return true;
+    }
+}
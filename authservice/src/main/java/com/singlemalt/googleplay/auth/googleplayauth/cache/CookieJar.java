@@ -0,0 +1,164 @@
+package com.singlemalt.googleplay.auth.googleplayauth.cache;
+
+import android.content.Context;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.net.CookieManager;
+import java.net.CookieStore;
+import java.net.HttpCookie;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cookie store for our servers' cookies. Domain, path and expiry rules are those of the
+ * platform's in-memory store. Cookies with a Max-Age or Expires are also kept encrypted on disk
+ * and survive a restart, session cookies only live as long as the process.
+ */
+public class CookieJar implements CookieStore {
+    private static final String PREFS_NAME = "googleplayauth_cookies";
+    private static final String COOKIES_KEY = "cookies";
+
+    private static CookieJar ourInstance;
+
+    private final SecurePreferences prefs;
+    private final CookieStore memory = new CookieManager().getCookieStore();
+    // persistent cookies with the uri they were set from, HttpCookie equality is name, domain
+    // and path so a replaced cookie replaces its entry
+    private final Map<HttpCookie, StoredCookie> persistent = new HashMap<>();
+
+    private static class StoredCookie {
+        String uri;
+        String name;
+        String value;
+        String domain;
+        String path;
+        boolean secure;
+        int version;
+        long expiresAt;
+    }
+
+    public static synchronized CookieJar getInstance(Context context) {
+        if (ourInstance == null) {
+            ourInstance = new CookieJar(context.getApplicationContext());
+        }
+        return ourInstance;
+    }
+
+    private CookieJar(Context context) {
+        this(new SecurePreferences(context, PREFS_NAME));
+    }
+
+    CookieJar(SecurePreferences prefs) {
+        this.prefs = prefs;
+        load();
+    }
+
+    @Override
+    public synchronized void add(URI uri, HttpCookie cookie) {
+        memory.add(uri, cookie);
+        persistent.remove(cookie);
+
+        if (cookie.getMaxAge() > 0) {
+            StoredCookie stored = new StoredCookie();
+            stored.uri = uri.toString();
+            stored.name = cookie.getName();
+            stored.value = cookie.getValue();
+            stored.domain = cookie.getDomain();
+            stored.path = cookie.getPath();
+            stored.secure = cookie.getSecure();
+            stored.version = cookie.getVersion();
+            stored.expiresAt = System.currentTimeMillis()
+                    + TimeUnit.SECONDS.toMillis(cookie.getMaxAge());
+            persistent.put(cookie, stored);
+        }
+        save();
+    }
+
+    @Override
+    public synchronized List<HttpCookie> get(URI uri) {
+        return memory.get(uri);
+    }
+
+    @Override
+    public synchronized List<HttpCookie> getCookies() {
+        return memory.getCookies();
+    }
+
+    @Override
+    public synchronized List<URI> getURIs() {
+        return memory.getURIs();
+    }
+
+    @Override
+    public synchronized boolean remove(URI uri, HttpCookie cookie) {
+        boolean removed = memory.remove(uri, cookie);
+        if (persistent.remove(cookie) != null) {
+            save();
+        }
+        return removed;
+    }
+
+    @Override
+    public synchronized boolean removeAll() {
+        persistent.clear();
+        prefs.remove(COOKIES_KEY);
+        return memory.removeAll();
+    }
+
+    private void load() {
+        String value = prefs.getString(COOKIES_KEY);
+        if (value == null) {
+            return;
+        }
+
+        StoredCookie[] stored;
+        try {
+            stored = new Gson().fromJson(value, StoredCookie[].class);
+        } catch (JsonParseException e) {
+            prefs.remove(COOKIES_KEY);
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        for (StoredCookie entry : stored) {
+            if (entry.expiresAt <= now) {
+                continue;
+            }
+
+            try {
+                HttpCookie cookie = new HttpCookie(entry.name, entry.value);
+                cookie.setDomain(entry.domain);
+                cookie.setPath(entry.path);
+                cookie.setSecure(entry.secure);
+                cookie.setVersion(entry.version);
+                cookie.setMaxAge(TimeUnit.MILLISECONDS.toSeconds(entry.expiresAt - now));
+                memory.add(URI.create(entry.uri), cookie);
+                persistent.put(cookie, entry);
+            } catch (IllegalArgumentException e) {
+                // skip the one bad cookie, keep the rest
+            }
+        }
+    }
+
+    private void save() {
+        long now = System.currentTimeMillis();
+        List<StoredCookie> live = new ArrayList<>();
+        for (StoredCookie entry : persistent.values()) {
+            if (entry.expiresAt > now) {
+                live.add(entry);
+            }
+        }
+
+        if (live.isEmpty()) {
+            prefs.remove(COOKIES_KEY);
+        } else {
+            prefs.putString(COOKIES_KEY, new Gson().toJson(live));
+        }
+    }
+}
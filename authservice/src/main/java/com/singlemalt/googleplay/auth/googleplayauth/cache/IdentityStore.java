@@ -0,0 +1,78 @@
+package com.singlemalt.googleplay.auth.googleplayauth.cache;
+
+import android.content.Context;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+/**
+ * Persists the identity of the last login our server confirmed, so the next launch can report
+ * it to the game right away and verify it in the background.
+ */
+public class IdentityStore {
+    private static final String PREFS_NAME = "googleplayauth_identity";
+    private static final String IDENTITY_KEY = "identity";
+
+    private static IdentityStore ourInstance;
+
+    private final SecurePreferences prefs;
+    private volatile Identity identity;
+    private volatile boolean loaded = false;
+
+    public static class Identity {
+        public String playerId;
+        public String serverPlayerId;
+        public String playerName;
+        public boolean anonymous;
+        public String sessionToken;
+        public long confirmedAt;
+    }
+
+    public static synchronized IdentityStore getInstance(Context context) {
+        if (ourInstance == null) {
+            ourInstance = new IdentityStore(context.getApplicationContext());
+        }
+        return ourInstance;
+    }
+
+    private IdentityStore(Context context) {
+        this.prefs = new SecurePreferences(context, PREFS_NAME);
+    }
+
+    /**
+     * Returns the last confirmed identity, or null if no login was ever confirmed.
+     */
+    public Identity get() {
+        if (!loaded) {
+            String stored = prefs.getString(IDENTITY_KEY);
+            try {
+                identity = stored != null ? new Gson().fromJson(stored, Identity.class) : null;
+            } catch (JsonParseException e) {
+                identity = null;
+            }
+            loaded = true;
+        }
+        return identity;
+    }
+
+    public void put(String playerId, String serverPlayerId, String playerName, boolean anonymous,
+                    String sessionToken) {
+        Identity next = new Identity();
+        next.playerId = playerId;
+        next.serverPlayerId = serverPlayerId;
+        next.playerName = playerName;
+        next.anonymous = anonymous;
+        next.sessionToken = sessionToken;
+        next.confirmedAt = System.currentTimeMillis();
+
+        identity = next;
+        loaded = true;
+        prefs.putString(IDENTITY_KEY, new Gson().toJson(next));
+    }
+
+    public void clear() {
+        identity = null;
+        loaded = true;
+        prefs.remove(IDENTITY_KEY);
+    }
+}
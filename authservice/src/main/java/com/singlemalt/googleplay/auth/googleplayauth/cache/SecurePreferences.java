@@ -0,0 +1,126 @@
+package com.singlemalt.googleplay.auth.googleplayauth.cache;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.provider.Settings;
+import android.util.Base64;
+import android.util.Log;
+
+import com.singlemalt.googleplay.auth.googleplayauth.AuthInstance;
+
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Private SharedPreferences file whose keys are hashed and whose values are AES encrypted.
+ *
+ * The key is derived from a random per-install salt and the device's ANDROID_ID, so a
+ * preferences file restored onto another device simply reads back as empty.
+ */
+public class SecurePreferences {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final String TRANSFORMATION = "AES/CBC/PKCS5Padding";
+    private static final String SALT_KEY = "salt";
+    private static final int IV_LENGTH = 16;
+
+    private final SharedPreferences prefs;
+    private final SecureRandom random = new SecureRandom();
+    private final SecretKeySpec key;
+
+    public SecurePreferences(Context context, String name) {
+        Context appContext = context.getApplicationContext();
+        this.prefs = appContext.getSharedPreferences(name, Context.MODE_PRIVATE);
+        this.key = deriveKey(appContext);
+    }
+
+    // for in-memory stand-ins in tests, which override every accessor
+    SecurePreferences() {
+        this.prefs = null;
+        this.key = null;
+    }
+
+    public String getString(String name) {
+        String stored = prefs.getString(hash(name), null);
+        if (stored == null) {
+            return null;
+        }
+
+        try {
+            byte[] data = Base64.decode(stored, Base64.NO_WRAP);
+            Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+            cipher.init(Cipher.DECRYPT_MODE, key, new IvParameterSpec(data, 0, IV_LENGTH));
+            return new String(cipher.doFinal(data, IV_LENGTH, data.length - IV_LENGTH), UTF8);
+        } catch (IllegalArgumentException | GeneralSecurityException e) {
+            Log.w(AuthInstance.TAG, "Dropping unreadable secure preference");
+            remove(name);
+            return null;
+        }
+    }
+
+    public void putString(String name, String value) {
+        if (value == null) {
+            remove(name);
+            return;
+        }
+
+        try {
+            byte[] iv = new byte[IV_LENGTH];
+            random.nextBytes(iv);
+
+            Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+            cipher.init(Cipher.ENCRYPT_MODE, key, new IvParameterSpec(iv));
+            byte[] encrypted = cipher.doFinal(value.getBytes(UTF8));
+
+            byte[] data = new byte[IV_LENGTH + encrypted.length];
+            System.arraycopy(iv, 0, data, 0, IV_LENGTH);
+            System.arraycopy(encrypted, 0, data, IV_LENGTH, encrypted.length);
+
+            prefs.edit().putString(hash(name), Base64.encodeToString(data, Base64.NO_WRAP)).apply();
+        } catch (GeneralSecurityException e) {
+            Log.e(AuthInstance.TAG, "Could not encrypt secure preference", e);
+        }
+    }
+
+    public void remove(String name) {
+        prefs.edit().remove(hash(name)).apply();
+    }
+
+    private SecretKeySpec deriveKey(Context context) {
+        String salt = prefs.getString(SALT_KEY, null);
+        if (salt == null) {
+            byte[] bytes = new byte[32];
+            random.nextBytes(bytes);
+            salt = Base64.encodeToString(bytes, Base64.NO_WRAP);
+            prefs.edit().putString(SALT_KEY, salt).apply();
+        }
+
+        String androidId = Settings.Secure.getString(context.getContentResolver(),
+                Settings.Secure.ANDROID_ID);
+        byte[] digest = sha256(salt + ":" + androidId + ":" + context.getPackageName());
+        return new SecretKeySpec(digest, 0, 16, "AES");
+    }
+
+    private static String hash(String name) {
+        byte[] digest = sha256(name);
+        StringBuilder builder = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            builder.append(Character.forDigit((b >> 4) & 0xf, 16));
+            builder.append(Character.forDigit(b & 0xf, 16));
+        }
+        return builder.toString();
+    }
+
+    private static byte[] sha256(String value) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(value.getBytes(UTF8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
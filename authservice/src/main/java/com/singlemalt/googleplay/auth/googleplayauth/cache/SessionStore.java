@@ -0,0 +1,116 @@
+package com.singlemalt.googleplay.auth.googleplayauth.cache;
+
+import android.content.Context;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.net.HttpCookie;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persists the server session cookie together with its expiry and the identity it was issued
+ * for, so a relaunch inside the session window can resume instead of re-authenticating.
+ */
+public class SessionStore {
+    private static final String PREFS_NAME = "googleplayauth_session";
+    private static final String SESSION_KEY = "session";
+    // sessions this close to expiry are not worth resuming
+    private static final long EXPIRY_MARGIN_MS = TimeUnit.MINUTES.toMillis(1);
+
+    private static SessionStore ourInstance;
+
+    private final SecurePreferences prefs;
+    private volatile Session session;
+    private volatile boolean loaded = false;
+
+    public enum ResumeMode {
+        // always run the full server auth
+        None,
+        // trust a stored session until it expires
+        Trust,
+        // check a stored session with a cheap request before trusting it
+        Validate
+    }
+
+    public static class Session {
+        public String cookieName;
+        public String cookieValue;
+        public long expiresAt;
+        public String playerId;
+        public String serverPlayerId;
+        public String playerName;
+        public boolean anonymous;
+
+        public boolean isValid(long now) {
+            return cookieValue != null && now < expiresAt - EXPIRY_MARGIN_MS;
+        }
+
+        public String toCookieHeader() {
+            return cookieName + "=" + cookieValue;
+        }
+    }
+
+    public static synchronized SessionStore getInstance(Context context) {
+        if (ourInstance == null) {
+            ourInstance = new SessionStore(context.getApplicationContext());
+        }
+        return ourInstance;
+    }
+
+    private SessionStore(Context context) {
+        this.prefs = new SecurePreferences(context, PREFS_NAME);
+    }
+
+    /**
+     * Returns the stored session if it has not expired, otherwise null.
+     */
+    public Session get() {
+        if (!loaded) {
+            String stored = prefs.getString(SESSION_KEY);
+            try {
+                session = stored != null ? new Gson().fromJson(stored, Session.class) : null;
+            } catch (JsonParseException e) {
+                session = null;
+            }
+            loaded = true;
+        }
+
+        Session current = session;
+        if (current != null && !current.isValid(System.currentTimeMillis())) {
+            clear();
+            return null;
+        }
+        return current;
+    }
+
+    /**
+     * Stores the cookie if it carries a Max-Age or Expires, session cookies are not persisted.
+     */
+    public void put(HttpCookie cookie, String playerId, String serverPlayerId, String playerName,
+                    boolean anonymous) {
+        if (cookie.getMaxAge() <= 0) {
+            clear();
+            return;
+        }
+
+        Session next = new Session();
+        next.cookieName = cookie.getName();
+        next.cookieValue = cookie.getValue();
+        next.expiresAt = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(cookie.getMaxAge());
+        next.playerId = playerId;
+        next.serverPlayerId = serverPlayerId;
+        next.playerName = playerName;
+        next.anonymous = anonymous;
+
+        session = next;
+        loaded = true;
+        prefs.putString(SESSION_KEY, new Gson().toJson(next));
+    }
+
+    public void clear() {
+        session = null;
+        loaded = true;
+        prefs.remove(SESSION_KEY);
+    }
+}
@@ -0,0 +1,215 @@
+package com.singlemalt.googleplay.auth.googleplayauth.cache;
+
+import android.content.Context;
+import android.util.Base64;
+import android.util.Log;
+
+import com.google.android.gms.auth.GoogleAuthException;
+import com.google.android.gms.auth.GoogleAuthUtil;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.singlemalt.googleplay.auth.googleplayauth.AuthInstance;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encrypted on-disk cache of OAuth tokens keyed by account name and scope, so a still valid
+ * token can be served without a round trip to Play Services.
+ */
+public class TokenCache {
+    private static final String PREFS_NAME = "googleplayauth_tokens";
+    private static final String LAST_ACCOUNT_KEY = "lastAccount";
+    // used when the token is not a JWT we can read an expiry from
+    private static final long DEFAULT_LIFETIME_MS = TimeUnit.MINUTES.toMillis(55);
+    // tokens this close to expiry are treated as expired
+    private static final long EXPIRY_MARGIN_MS = TimeUnit.MINUTES.toMillis(2);
+
+    private static TokenCache ourInstance;
+
+    private final Context context;
+    private final SecurePreferences prefs;
+    private final ConcurrentHashMap<String, CachedToken> memory = new ConcurrentHashMap<>();
+    private volatile String lastAccount;
+
+    public static class CachedToken {
+        public final String token;
+        public final long issuedAt;
+        public final long expiresAt;
+
+        public CachedToken(String token, long issuedAt, long expiresAt) {
+            this.token = token;
+            this.issuedAt = issuedAt;
+            this.expiresAt = expiresAt;
+        }
+
+        public boolean isValid(long now) {
+            return now < expiresAt - EXPIRY_MARGIN_MS;
+        }
+
+        String serialize() {
+            return issuedAt + "|" + expiresAt + "|" + token;
+        }
+
+        static CachedToken parse(String value) {
+            String[] parts = value.split("\\|", 3);
+            if (parts.length != 3) {
+                return null;
+            }
+            try {
+                return new CachedToken(parts[2], Long.parseLong(parts[0]), Long.parseLong(parts[1]));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+
+    public static synchronized TokenCache getInstance(Context context) {
+        if (ourInstance == null) {
+            ourInstance = new TokenCache(context.getApplicationContext());
+        }
+        return ourInstance;
+    }
+
+    private TokenCache(Context context) {
+        this.context = context;
+        this.prefs = new SecurePreferences(context, PREFS_NAME);
+    }
+
+    /**
+     * Returns the cached token for the account and scope, or null if there is none or it is
+     * about to expire.
+     */
+    public String get(String accountName, String scope) {
+        CachedToken entry = getEntry(accountName, scope);
+        return entry != null ? entry.token : null;
+    }
+
+    public CachedToken getEntry(String accountName, String scope) {
+        if (accountName == null || scope == null) {
+            return null;
+        }
+
+        String key = key(accountName, scope);
+        CachedToken entry = memory.get(key);
+        if (entry == null) {
+            String stored = prefs.getString(key);
+            entry = stored != null ? CachedToken.parse(stored) : null;
+            if (entry == null) {
+                return null;
+            }
+            memory.put(key, entry);
+        }
+
+        if (!entry.isValid(System.currentTimeMillis())) {
+            remove(key);
+            return null;
+        }
+        return entry;
+    }
+
+    public void put(String accountName, String scope, String token) {
+        if (accountName == null || scope == null || token == null) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        CachedToken entry = fromJwt(token, now);
+        if (entry == null) {
+            entry = new CachedToken(token, now, now + DEFAULT_LIFETIME_MS);
+        }
+
+        String key = key(accountName, scope);
+        memory.put(key, entry);
+        prefs.putString(key, entry.serialize());
+    }
+
+    /**
+     * Returns the account of the last sign in, used to prefetch its token on the next launch.
+     */
+    public String getLastAccount() {
+        if (lastAccount == null) {
+            lastAccount = prefs.getString(LAST_ACCOUNT_KEY);
+        }
+        return lastAccount;
+    }
+
+    public void setLastAccount(String accountName) {
+        if (accountName != null && !accountName.equals(getLastAccount())) {
+            lastAccount = accountName;
+            prefs.putString(LAST_ACCOUNT_KEY, accountName);
+        }
+    }
+
+    /**
+     * Drops the cached token and tells Play Services to forget it, so the next fetch returns a
+     * fresh one. Call this when the server rejects a token. Blocks, do not call on the UI thread.
+     */
+    public void invalidate(String accountName, String scope, String token) {
+        if (accountName != null && scope != null) {
+            String key = key(accountName, scope);
+            CachedToken entry = getEntryUnchecked(key);
+            if (token == null && entry != null) {
+                token = entry.token;
+            }
+            remove(key);
+        }
+
+        if (token == null) {
+            return;
+        }
+
+        try {
+            GoogleAuthUtil.clearToken(context, token);
+        } catch (GoogleAuthException | IOException e) {
+            Log.e(AuthInstance.TAG, "Could not clear token: ", e);
+        }
+    }
+
+    private CachedToken getEntryUnchecked(String key) {
+        CachedToken entry = memory.get(key);
+        if (entry == null) {
+            String stored = prefs.getString(key);
+            entry = stored != null ? CachedToken.parse(stored) : null;
+        }
+        return entry;
+    }
+
+    private void remove(String key) {
+        memory.remove(key);
+        prefs.remove(key);
+    }
+
+    private static String key(String accountName, String scope) {
+        return accountName + "|" + scope;
+    }
+
+    // audience:server:client_id tokens are ID tokens, read iat/exp from the payload
+    private static CachedToken fromJwt(String token, long now) {
+        String[] parts = token.split("\\.");
+        if (parts.length != 3) {
+            return null;
+        }
+
+        try {
+            byte[] payload = Base64.decode(parts[1],
+                    Base64.URL_SAFE | Base64.NO_PADDING | Base64.NO_WRAP);
+            JsonObject claims = new JsonParser()
+                    .parse(new String(payload, Charset.forName("UTF-8"))).getAsJsonObject();
+
+            JsonElement exp = claims.get("exp");
+            if (exp == null) {
+                return null;
+            }
+            JsonElement iat = claims.get("iat");
+            long issuedAt = iat != null ? TimeUnit.SECONDS.toMillis(iat.getAsLong()) : now;
+            return new CachedToken(token, issuedAt, TimeUnit.SECONDS.toMillis(exp.getAsLong()));
+        } catch (RuntimeException e) {
+            Log.w(AuthInstance.TAG, "Token is not a readable JWT, using default lifetime");
+            return null;
+        }
+    }
+}
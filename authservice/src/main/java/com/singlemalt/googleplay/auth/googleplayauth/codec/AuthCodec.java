@@ -0,0 +1,160 @@
+package com.singlemalt.googleplay.auth.googleplayauth.codec;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringWriter;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Shared codec for the server auth exchange. JSON is written and read field by field instead of
+ * through reflection. Requests are encoded to UTF-8 bytes up front so they go out with a fixed
+ * Content-Length, responses are parsed straight from the connection.
+ *
+ * The compact binary format of {@link BinaryCodec} is negotiated per host: requests advertise
+ * it in Accept, and once a host answers in binary our requests to it are sent in binary too.
+ * JSON stays the fallback.
+ */
+public class AuthCodec {
+    public static final String CONTENT_TYPE = "application/json; charset=utf-8";
+    public static final String BINARY_CONTENT_TYPE = "application/vnd.singlemalt.auth";
+    public static final String ACCEPT = BINARY_CONTENT_TYPE + ", application/json;q=0.5";
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final AuthCodec ourInstance = new AuthCodec();
+
+    // hosts that have answered in binary
+    private final Map<String, Boolean> binaryHosts = new ConcurrentHashMap<>();
+
+    public static AuthCodec getInstance() {
+        return ourInstance;
+    }
+
+    private AuthCodec() { }
+
+    /**
+     * Returns the request body, binary or UTF-8 JSON.
+     */
+    public byte[] encodeRequest(RequestPojo request, boolean binary) {
+        return binary ? BinaryCodec.encodeRequest(request) : toJson(request).getBytes(UTF8);
+    }
+
+    public String toJson(RequestPojo request) {
+        StringWriter writer = new StringWriter(256);
+        try {
+            JsonWriter jsonWriter = new JsonWriter(writer);
+            // match Gson's default of leaving out null fields
+            jsonWriter.setSerializeNulls(false);
+            write(jsonWriter, request);
+            jsonWriter.flush();
+        } catch (IOException e) {
+            // StringWriter does not throw
+            throw new IllegalStateException(e);
+        }
+        return writer.toString();
+    }
+
+    public ServerPlayer readServerPlayer(InputStream in) throws IOException {
+        JsonReader reader = new JsonReader(new InputStreamReader(in, UTF8));
+        reader.setLenient(true);
+        return read(reader);
+    }
+
+    /**
+     * Reads the response in the format its Content-Type names, JSON unless it is binary.
+     */
+    public ServerPlayer readServerPlayer(InputStream in, String contentType) throws IOException {
+        return isBinary(contentType) ? BinaryCodec.readServerPlayer(in) : readServerPlayer(in);
+    }
+
+    /**
+     * Returns whether requests to the url's host should be sent in binary.
+     */
+    public boolean acceptsBinary(String url) {
+        String host = host(url);
+        return host != null && Boolean.TRUE.equals(binaryHosts.get(host));
+    }
+
+    /**
+     * Records the format the url's host answered in.
+     */
+    public void rememberFormat(String url, String contentType) {
+        String host = host(url);
+        if (host == null) {
+            return;
+        }
+
+        if (isBinary(contentType)) {
+            binaryHosts.put(host, Boolean.TRUE);
+        } else {
+            binaryHosts.remove(host);
+        }
+    }
+
+    /**
+     * Returns whether the Content-Type names our binary format, parameters aside.
+     */
+    public static boolean isBinary(String contentType) {
+        if (contentType == null) {
+            return false;
+        }
+        int params = contentType.indexOf(';');
+        String mediaType = params >= 0 ? contentType.substring(0, params) : contentType;
+        return mediaType.trim().equalsIgnoreCase(BINARY_CONTENT_TYPE);
+    }
+
+    private static String host(String url) {
+        try {
+            return new URL(url).getAuthority();
+        } catch (MalformedURLException e) {
+            return null;
+        }
+    }
+
+    private static void write(JsonWriter out, RequestPojo request) throws IOException {
+        out.beginObject();
+        out.name("playerId").value(request.playerId);
+        out.name("serverPlayerId").value(request.serverPlayerId);
+        out.name("network").value(request.network);
+        out.name("playerName").value(request.playerName);
+        out.name("token").value(request.token);
+        out.endObject();
+    }
+
+    private static ServerPlayer read(JsonReader in) throws IOException {
+        ServerPlayer player = new ServerPlayer();
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                continue;
+            }
+
+            switch (name) {
+                case "realPlayerID":
+                    player.realPlayerID = in.nextString();
+                    break;
+                case "playerName":
+                    player.playerName = in.nextString();
+                    break;
+                case "isAnonymous":
+                    player.isAnonymous = in.nextBoolean();
+                    break;
+                default:
+                    in.skipValue();
+                    break;
+            }
+        }
+        in.endObject();
+        return player;
+    }
+}
@@ -0,0 +1,124 @@
+package com.singlemalt.googleplay.auth.googleplayauth.codec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Compact binary form of the server auth exchange. A version byte is followed by fields, each
+ * a one byte tag, a varint length and that many bytes. Strings are UTF-8, booleans one byte.
+ * Null fields are left out and unknown tags are skipped, so either side can add fields.
+ */
+class BinaryCodec {
+    static final int VERSION = 1;
+
+    // request tags
+    static final int TAG_PLAYER_ID = 1;
+    static final int TAG_SERVER_PLAYER_ID = 2;
+    static final int TAG_NETWORK = 3;
+    static final int TAG_PLAYER_NAME = 4;
+    static final int TAG_TOKEN = 5;
+
+    // response tags
+    static final int TAG_REAL_PLAYER_ID = 1;
+    static final int TAG_RESPONSE_PLAYER_NAME = 2;
+    static final int TAG_IS_ANONYMOUS = 3;
+
+    // no field of ours comes close, anything bigger is a corrupt body
+    private static final int MAX_FIELD_LENGTH = 64 * 1024;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private BinaryCodec() { }
+
+    static byte[] encodeRequest(RequestPojo request) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(256);
+        buffer.write(VERSION);
+        writeString(buffer, TAG_PLAYER_ID, request.playerId);
+        writeString(buffer, TAG_SERVER_PLAYER_ID, request.serverPlayerId);
+        writeString(buffer, TAG_NETWORK, request.network);
+        writeString(buffer, TAG_PLAYER_NAME, request.playerName);
+        writeString(buffer, TAG_TOKEN, request.token);
+        return buffer.toByteArray();
+    }
+
+    static ServerPlayer readServerPlayer(InputStream in) throws IOException {
+        int version = in.read();
+        if (version != VERSION) {
+            throw new IOException("Unsupported binary auth version " + version);
+        }
+
+        ServerPlayer player = new ServerPlayer();
+        int tag;
+        while ((tag = in.read()) != -1) {
+            byte[] value = readBytes(in, readVarint(in));
+            switch (tag) {
+                case TAG_REAL_PLAYER_ID:
+                    player.realPlayerID = new String(value, UTF8);
+                    break;
+                case TAG_RESPONSE_PLAYER_NAME:
+                    player.playerName = new String(value, UTF8);
+                    break;
+                case TAG_IS_ANONYMOUS:
+                    player.isAnonymous = value.length > 0 && value[0] != 0;
+                    break;
+                default:
+                    // a field we do not know yet
+                    break;
+            }
+        }
+        return player;
+    }
+
+    private static void writeString(ByteArrayOutputStream out, int tag, String value) {
+        if (value == null) {
+            return;
+        }
+
+        byte[] bytes = value.getBytes(UTF8);
+        out.write(tag);
+        writeVarint(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarint(InputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.read();
+            if (b == -1) {
+                throw new EOFException("Truncated binary auth body");
+            }
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint in binary auth body");
+    }
+
+    private static byte[] readBytes(InputStream in, int length) throws IOException {
+        if (length < 0 || length > MAX_FIELD_LENGTH) {
+            throw new IOException("Bad field length " + length + " in binary auth body");
+        }
+
+        byte[] bytes = new byte[length];
+        int read = 0;
+        while (read < length) {
+            int count = in.read(bytes, read, length - read);
+            if (count == -1) {
+                throw new EOFException("Truncated binary auth body");
+            }
+            read += count;
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,20 @@
+package com.singlemalt.googleplay.auth.googleplayauth.codec;
+
+/**
+ * Body of the server auth request.
+ */
+public class RequestPojo {
+    public String playerId;
+    public String serverPlayerId;
+    public String network;
+    public String playerName;
+    public String token;
+
+    public RequestPojo(String playerId, String serverPlayerId, String network, String playerName, String token) {
+        this.playerId = playerId;
+        this.serverPlayerId = serverPlayerId;
+        this.network = network;
+        this.playerName = playerName;
+        this.token = token;
+    }
+}
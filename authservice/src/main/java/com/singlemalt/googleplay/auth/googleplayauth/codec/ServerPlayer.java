@@ -0,0 +1,10 @@
+package com.singlemalt.googleplay.auth.googleplayauth.codec;
+
+/**
+ * Body of the server auth response.
+ */
+public class ServerPlayer {
+    public String realPlayerID;
+    public String playerName;
+    public boolean isAnonymous;
+}
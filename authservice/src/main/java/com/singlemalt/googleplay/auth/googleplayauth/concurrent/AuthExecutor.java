@@ -0,0 +1,105 @@
+package com.singlemalt.googleplay.auth.googleplayauth.concurrent;
+
+
+import com.singlemalt.googleplay.auth.googleplayauth.AuthInstance;
+import com.singlemalt.googleplay.auth.googleplayauth.metrics.EventTrace;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The one scheduler all auth work runs on: server auth runners, token fetches and the auth
+ * AsyncTasks. Bounded, with named daemon threads that time out when idle. Requests that a
+ * task on the scheduler waits for go to a separate unbounded I/O pool, so the waiting task
+ * can never starve them of a thread.
+ */
+public class AuthExecutor {
+    private static final int POOL_SIZE = 3;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static ScheduledThreadPoolExecutor executor;
+    private static ThreadPoolExecutor ioExecutor;
+
+    private static final ThreadFactory THREAD_FACTORY = new NamedThreadFactory("googleplayauth-");
+    private static final ThreadFactory IO_THREAD_FACTORY =
+            new NamedThreadFactory("googleplayauth-io-");
+
+    private static class NamedThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private final AtomicInteger count = new AtomicInteger(1);
+
+        NamedThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, prefix + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    private AuthExecutor() { }
+
+    /**
+     * Returns the shared scheduler, creating it again if it was shut down.
+     */
+    public static synchronized ScheduledThreadPoolExecutor getInstance() {
+        if (executor == null || executor.isShutdown()) {
+            executor = new ScheduledThreadPoolExecutor(POOL_SIZE, THREAD_FACTORY);
+            executor.setKeepAliveTime(KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+            executor.allowCoreThreadTimeOut(true);
+        }
+        return executor;
+    }
+
+    /**
+     * Returns the pool for blocking requests a scheduler task waits on, such as the two sends
+     * of a hedged server auth. Threads are created as needed and time out when idle.
+     */
+    public static synchronized ExecutorService getIoExecutor() {
+        if (ioExecutor == null || ioExecutor.isShutdown()) {
+            ioExecutor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, KEEP_ALIVE_SECONDS,
+                    TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), IO_THREAD_FACTORY);
+        }
+        return ioExecutor;
+    }
+
+    /**
+     * Stops accepting work and waits briefly for running work to finish.
+     */
+    public static void shutdown() {
+        ScheduledThreadPoolExecutor current;
+        ThreadPoolExecutor currentIo;
+        synchronized (AuthExecutor.class) {
+            current = executor;
+            currentIo = ioExecutor;
+            executor = null;
+            ioExecutor = null;
+        }
+
+        if (currentIo != null) {
+            currentIo.shutdown();
+        }
+        if (current == null) {
+            return;
+        }
+
+        current.shutdown();
+        try {
+            if (!current.awaitTermination(2, TimeUnit.SECONDS)) {
+                current.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            current.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        EventTrace.record(EventTrace.Event.ExecutorShutdown);
+    }
+}
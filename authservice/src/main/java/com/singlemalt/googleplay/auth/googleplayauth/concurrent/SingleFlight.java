@@ -0,0 +1,136 @@
+package com.singlemalt.googleplay.auth.googleplayauth.concurrent;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Deduplicates concurrent requests for the same key. The first caller runs the request, callers
+ * that arrive while it is in flight attach to it and get its result.
+ */
+public class SingleFlight<T> {
+    private final ConcurrentHashMap<String, Call<T>> calls = new ConcurrentHashMap<>();
+
+    public interface Callback<T> {
+        void onResult(T result, Exception error);
+    }
+
+    public static class Call<T> {
+        private final String key;
+        private final AtomicBoolean claimed = new AtomicBoolean(false);
+        private final CountDownLatch done = new CountDownLatch(1);
+        private final List<Callback<T>> callbacks = new ArrayList<>();
+        private T result;
+        private Exception error;
+
+        private Call(String key) {
+            this.key = key;
+        }
+
+        /**
+         * Returns true for exactly one caller, which must run the request and complete the call.
+         */
+        public boolean claim() {
+            return claimed.compareAndSet(false, true);
+        }
+
+        /**
+         * Blocks until the leader completes the call and returns its result.
+         */
+        public T await() throws IOException {
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted waiting for in-flight request");
+            }
+
+            if (error instanceof IOException) {
+                throw (IOException) error;
+            } else if (error instanceof RuntimeException) {
+                throw (RuntimeException) error;
+            } else if (error != null) {
+                throw new IOException(error);
+            }
+            return result;
+        }
+
+        /**
+         * Runs the callback with the result once the call completes, right away if it has.
+         */
+        public void addCallback(Callback<T> callback) {
+            synchronized (callbacks) {
+                if (done.getCount() > 0) {
+                    callbacks.add(callback);
+                    return;
+                }
+            }
+            callback.onResult(result, error);
+        }
+    }
+
+    public static String key(String kind, String account, String scope) {
+        return kind + "|" + account + "|" + scope;
+    }
+
+    /**
+     * Returns the call in flight for the key, starting a new one if there is none.
+     */
+    public Call<T> join(String key) {
+        Call<T> fresh = new Call<>(key);
+        Call<T> existing = calls.putIfAbsent(key, fresh);
+        return existing != null ? existing : fresh;
+    }
+
+    /**
+     * Returns the call in flight for the key, or null if there is none.
+     */
+    public Call<T> find(String key) {
+        return calls.get(key);
+    }
+
+    /**
+     * Publishes the leader's result to every attached caller and retires the call.
+     */
+    public void complete(Call<T> call, T result, Exception error) {
+        List<Callback<T>> pending;
+        synchronized (call.callbacks) {
+            call.result = result;
+            call.error = error;
+            calls.remove(call.key, call);
+            call.done.countDown();
+            pending = new ArrayList<>(call.callbacks);
+            call.callbacks.clear();
+        }
+
+        for (Callback<T> callback : pending) {
+            callback.onResult(result, error);
+        }
+    }
+
+    /**
+     * Runs the callable unless a call for the key is already in flight, in which case this
+     * waits for and returns that call's result.
+     */
+    public T execute(String key, Callable<T> callable) throws IOException {
+        Call<T> call = join(key);
+        if (!call.claim()) {
+            return call.await();
+        }
+
+        T result = null;
+        Exception error = null;
+        try {
+            result = callable.call();
+        } catch (Exception e) {
+            error = e;
+        } finally {
+            complete(call, result, error);
+        }
+        return call.await();
+    }
+}
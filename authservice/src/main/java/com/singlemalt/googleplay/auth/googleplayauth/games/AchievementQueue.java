@@ -0,0 +1,178 @@
+package com.singlemalt.googleplay.auth.googleplayauth.games;
+
+import android.app.Activity;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.common.api.PendingResult;
+import com.google.android.gms.games.Games;
+import com.google.android.gms.games.achievement.Achievements;
+import com.singlemalt.googleplay.auth.googleplayauth.AuthInstance;
+import com.singlemalt.googleplay.auth.googleplayauth.concurrent.AuthExecutor;
+import com.unity3d.player.UnityPlayer;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Persistent queue of achievement unlocks. Unlocks are stored first and sent in batches while
+ * GoogleApiClient is connected, so unlocks made offline or during a reconnect are not lost.
+ * Achievements the player already unlocked are never sent again.
+ */
+public class AchievementQueue {
+    private static final String PREFS_NAME = "googleplayauth_achievements";
+    private static final String PENDING_KEY = "pending";
+    private static final String UNLOCKED_KEY = "unlocked|";
+    // how long to wait on each unlock of a batch
+    private static final long UNLOCK_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(10);
+    // repeated calls to show the achievements UI within this window open it once
+    private static final long SHOW_DEBOUNCE_MS = 500;
+
+    private static AchievementQueue ourInstance;
+
+    private final SharedPreferences prefs;
+    private final Set<String> pending;
+    private final AtomicBoolean flushing = new AtomicBoolean(false);
+    private ScheduledFuture<?> pendingShow;
+
+    public static synchronized AchievementQueue getInstance(Context context) {
+        if (ourInstance == null) {
+            ourInstance = new AchievementQueue(context.getApplicationContext());
+        }
+        return ourInstance;
+    }
+
+    private AchievementQueue(Context context) {
+        this.prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        this.pending = new HashSet<>(prefs.getStringSet(PENDING_KEY, new HashSet<String>()));
+    }
+
+    /**
+     * Queues the unlock and sends it right away if the client is connected. Achievements
+     * already unlocked or queued are ignored.
+     */
+    public void unlock(String achievementId) {
+        synchronized (this) {
+            if (pending.contains(achievementId) || getUnlocked().contains(achievementId)) {
+                return;
+            }
+            pending.add(achievementId);
+            prefs.edit().putStringSet(PENDING_KEY, new HashSet<>(pending)).apply();
+        }
+        flush();
+    }
+
+    /**
+     * Sends every queued unlock if the client is connected. All unlocks of a batch are issued
+     * before any is awaited, those that fail stay queued for the next flush.
+     */
+    public void flush() {
+        final GoogleApiClient client = AuthInstance.getInstance().getGoogleApiClient();
+        if (client == null || !client.isConnected() || !flushing.compareAndSet(false, true)) {
+            return;
+        }
+
+        AuthExecutor.getInstance().execute(new Runnable() {
+            @Override
+            public void run() {
+                boolean queuedMeanwhile;
+                try {
+                    queuedMeanwhile = sendPending(client);
+                } finally {
+                    flushing.set(false);
+                }
+
+                // failed unlocks wait for the next flush, new ones go out now
+                if (queuedMeanwhile) {
+                    flush();
+                }
+            }
+        });
+    }
+
+    /**
+     * Opens the achievements UI. Calls in quick succession are collapsed into one, which runs
+     * after the last of them.
+     */
+    public synchronized void showAchievements() {
+        if (pendingShow != null) {
+            pendingShow.cancel(false);
+        }
+
+        pendingShow = AuthExecutor.getInstance().schedule(new Runnable() {
+            @Override
+            public void run() {
+                final GoogleApiClient client = AuthInstance.getInstance().getGoogleApiClient();
+                if (client == null || !client.isConnected()) {
+                    Log.w(AuthInstance.TAG, "Not showing achievements, client not connected");
+                    return;
+                }
+
+                final Activity activity = UnityPlayer.currentActivity;
+                activity.runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        activity.startActivityForResult(
+                                Games.Achievements.getAchievementsIntent(client),
+                                AuthInstance.REQUEST_ACHIEVEMENTS);
+                    }
+                });
+            }
+        }, SHOW_DEBOUNCE_MS, TimeUnit.MILLISECONDS);
+    }
+
+    // returns whether unlocks were queued while the batch was being sent
+    private boolean sendPending(GoogleApiClient client) {
+        List<String> batch;
+        synchronized (this) {
+            batch = new ArrayList<>(pending);
+        }
+        if (batch.isEmpty()) {
+            return false;
+        }
+
+        List<PendingResult<Achievements.UpdateAchievementResult>> results = new ArrayList<>();
+        for (String achievementId : batch) {
+            results.add(Games.Achievements.unlockImmediate(client, achievementId));
+        }
+
+        List<String> sent = new ArrayList<>();
+        for (int i = 0; i < batch.size(); i++) {
+            Achievements.UpdateAchievementResult result =
+                    results.get(i).await(UNLOCK_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            if (result.getStatus().isSuccess()) {
+                sent.add(batch.get(i));
+            } else {
+                Log.w(AuthInstance.TAG, "Achievement unlock failed with status "
+                        + result.getStatus().getStatusCode());
+            }
+        }
+
+        synchronized (this) {
+            pending.removeAll(sent);
+            Set<String> unlocked = getUnlocked();
+            unlocked.addAll(sent);
+            prefs.edit()
+                    .putStringSet(PENDING_KEY, new HashSet<>(pending))
+                    .putStringSet(unlockedKey(), unlocked)
+                    .apply();
+            return !batch.containsAll(pending);
+        }
+    }
+
+    // unlocked achievements are remembered per player
+    private Set<String> getUnlocked() {
+        return new HashSet<>(prefs.getStringSet(unlockedKey(), new HashSet<String>()));
+    }
+
+    private static String unlockedKey() {
+        return UNLOCKED_KEY + AuthInstance.getInstance().getPlayerId();
+    }
+}
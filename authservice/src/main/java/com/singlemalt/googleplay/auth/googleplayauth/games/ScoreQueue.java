@@ -0,0 +1,289 @@
+package com.singlemalt.googleplay.auth.googleplayauth.games;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.common.api.PendingResult;
+import com.google.android.gms.games.Games;
+import com.google.android.gms.games.leaderboard.Leaderboards;
+import com.singlemalt.googleplay.auth.googleplayauth.AuthInstance;
+import com.singlemalt.googleplay.auth.googleplayauth.concurrent.AuthExecutor;
+import com.singlemalt.googleplay.auth.googleplayauth.net.RetryPolicy;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Leaderboard score submissions. Only a score that beats the best one already submitted or
+ * queued for its leaderboard is kept, so a burst of scores becomes at most one submission per
+ * leaderboard. Pending scores are persisted while GoogleApiClient is disconnected and sent in
+ * batches once it is connected. Scores and best scores are kept per player, each player's
+ * queued scores are only sent while that player is signed in.
+ */
+public class ScoreQueue {
+    private static final String PREFS_NAME = "googleplayauth_scores";
+    private static final String PENDING_KEY = "pending";
+    private static final String SCORE_KEY = "score|";
+    private static final String LOWER_KEY = "lower|";
+    private static final String PLAYER_KEY = "player|";
+    private static final String BOARD_KEY = "board|";
+    private static final String BEST_KEY = "best|";
+    // scores submitted within this window go out in one batch
+    private static final long BATCH_DELAY_MS = 2000;
+    // how long to wait on each submission of a batch
+    private static final long SUBMIT_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(10);
+
+    private final RetryPolicy backoff = new RetryPolicy(Integer.MAX_VALUE,
+            TimeUnit.SECONDS.toMillis(5), TimeUnit.MINUTES.toMillis(5));
+
+    private static ScoreQueue ourInstance;
+
+    private final SharedPreferences prefs;
+    // player and leaderboard to the best score waiting to be submitted
+    private final Map<String, Pending> pending = new HashMap<>();
+    // leaderboards where a lower score is better
+    private final Set<String> lowerIsBetter = new HashSet<>();
+    private ScheduledFuture<?> scheduledFlush;
+    private boolean flushing = false;
+    // flushes in a row that left failed submissions behind
+    private int failedFlushes = 0;
+
+    private static class Pending {
+        final long score;
+        // player signed in when the score was queued
+        final String playerId;
+        final String leaderboardId;
+
+        Pending(long score, String playerId, String leaderboardId) {
+            this.score = score;
+            this.playerId = playerId;
+            this.leaderboardId = leaderboardId;
+        }
+    }
+
+    public static synchronized ScoreQueue getInstance(Context context) {
+        if (ourInstance == null) {
+            ourInstance = new ScoreQueue(context.getApplicationContext());
+        }
+        return ourInstance;
+    }
+
+    private ScoreQueue(Context context) {
+        this(context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE));
+    }
+
+    ScoreQueue(SharedPreferences prefs) {
+        this.prefs = prefs;
+        for (String key : prefs.getStringSet(PENDING_KEY, new HashSet<String>())) {
+            String leaderboardId = prefs.getString(BOARD_KEY + key, null);
+            if (leaderboardId == null) {
+                continue;
+            }
+            pending.put(key, new Pending(prefs.getLong(SCORE_KEY + key, 0),
+                    prefs.getString(PLAYER_KEY + key, null), leaderboardId));
+            if (prefs.getBoolean(LOWER_KEY + key, false)) {
+                lowerIsBetter.add(leaderboardId);
+            }
+        }
+    }
+
+    /**
+     * Queues the score unless it cannot beat the best score already submitted or queued for
+     * the leaderboard. Returns whether it was queued.
+     */
+    public boolean submit(String leaderboardId, long score, boolean lowerScoreIsBetter) {
+        return submit(AuthInstance.getInstance().getPlayerId(), leaderboardId, score,
+                lowerScoreIsBetter);
+    }
+
+    synchronized boolean submit(String playerId, String leaderboardId, long score,
+                                boolean lowerScoreIsBetter) {
+        if (lowerScoreIsBetter) {
+            lowerIsBetter.add(leaderboardId);
+        } else {
+            lowerIsBetter.remove(leaderboardId);
+        }
+
+        String key = pendingKey(playerId, leaderboardId);
+        Pending queued = pending.get(key);
+        if (queued != null && !isBetter(leaderboardId, score, queued.score)) {
+            return false;
+        }
+        String bestKey = bestKey(playerId, leaderboardId);
+        if (queued == null && prefs.contains(bestKey)
+                && !isBetter(leaderboardId, score, prefs.getLong(bestKey, 0))) {
+            return false;
+        }
+
+        pending.put(key, new Pending(score, playerId, leaderboardId));
+        prefs.edit()
+                .putStringSet(PENDING_KEY, new HashSet<>(pending.keySet()))
+                .putLong(SCORE_KEY + key, score)
+                .putBoolean(LOWER_KEY + key, lowerScoreIsBetter)
+                .putString(PLAYER_KEY + key, playerId)
+                .putString(BOARD_KEY + key, leaderboardId)
+                .apply();
+
+        scheduleFlush(BATCH_DELAY_MS);
+        return true;
+    }
+
+    /**
+     * Sends every pending score of the signed in player if the client is connected. Scores
+     * that fail stay queued and are retried with backoff, scores queued while a batch is out
+     * follow right after it. Other players' scores wait until they sign in again.
+     */
+    public void flush() {
+        final GoogleApiClient client = AuthInstance.getInstance().getGoogleApiClient();
+        final String playerId = AuthInstance.getInstance().getPlayerId();
+        synchronized (this) {
+            if (client == null || !client.isConnected() || flushing
+                    || pendingFor(playerId).isEmpty()) {
+                return;
+            }
+            flushing = true;
+        }
+
+        AuthExecutor.getInstance().execute(new Runnable() {
+            @Override
+            public void run() {
+                boolean queuedMeanwhile;
+                try {
+                    queuedMeanwhile = sendPending(client, playerId);
+                } finally {
+                    synchronized (ScoreQueue.this) {
+                        flushing = false;
+                    }
+                }
+
+                // their scheduled flush found us busy and gave up
+                if (queuedMeanwhile) {
+                    flush();
+                }
+            }
+        });
+    }
+
+    private synchronized void scheduleFlush(long delay) {
+        if (scheduledFlush != null) {
+            return;
+        }
+
+        scheduledFlush = AuthExecutor.getInstance().schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (ScoreQueue.this) {
+                    scheduledFlush = null;
+                }
+                flush();
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns the scores queued by the given player, keyed by leaderboard.
+     */
+    synchronized Map<String, Long> getPending(String playerId) {
+        Map<String, Long> scores = new HashMap<>();
+        for (Pending queued : pendingFor(playerId).values()) {
+            scores.put(queued.leaderboardId, queued.score);
+        }
+        return scores;
+    }
+
+    // caller holds the lock
+    private Map<String, Pending> pendingFor(String playerId) {
+        Map<String, Pending> queued = new HashMap<>();
+        for (Map.Entry<String, Pending> entry : pending.entrySet()) {
+            if (isSamePlayer(playerId, entry.getValue().playerId)) {
+                queued.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return queued;
+    }
+
+    // returns whether the player queued scores while the batch was being sent
+    private boolean sendPending(GoogleApiClient client, String playerId) {
+        Map<String, Pending> batch;
+        synchronized (this) {
+            batch = pendingFor(playerId);
+        }
+
+        List<String> ids = new ArrayList<>(batch.keySet());
+        List<PendingResult<Leaderboards.SubmitScoreResult>> results = new ArrayList<>();
+        for (String key : ids) {
+            Pending queued = batch.get(key);
+            results.add(Games.Leaderboards.submitScoreImmediate(client, queued.leaderboardId,
+                    queued.score));
+        }
+
+        List<String> sent = new ArrayList<>();
+        for (int i = 0; i < ids.size(); i++) {
+            Leaderboards.SubmitScoreResult result =
+                    results.get(i).await(SUBMIT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            if (result.getStatus().isSuccess()) {
+                sent.add(ids.get(i));
+            } else {
+                Log.w(AuthInstance.TAG, "Score submission failed with status "
+                        + result.getStatus().getStatusCode());
+            }
+        }
+
+        synchronized (this) {
+            SharedPreferences.Editor editor = prefs.edit();
+            for (String key : sent) {
+                Pending submitted = batch.get(key);
+                editor.putLong(bestKey(submitted.playerId, submitted.leaderboardId),
+                        submitted.score);
+                // a better score may have been queued while this one was in flight
+                if (pending.get(key) == submitted) {
+                    pending.remove(key);
+                    editor.remove(SCORE_KEY + key)
+                            .remove(LOWER_KEY + key)
+                            .remove(PLAYER_KEY + key)
+                            .remove(BOARD_KEY + key);
+                }
+            }
+            editor.putStringSet(PENDING_KEY, new HashSet<>(pending.keySet())).apply();
+
+            // failed scores are still pending, try them again later
+            if (sent.size() < ids.size()) {
+                scheduleFlush(backoff.delayFor(++failedFlushes));
+            } else {
+                failedFlushes = 0;
+            }
+
+            for (Map.Entry<String, Pending> entry : pendingFor(playerId).entrySet()) {
+                if (batch.get(entry.getKey()) != entry.getValue()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private boolean isBetter(String leaderboardId, long score, long than) {
+        return lowerIsBetter.contains(leaderboardId) ? score < than : score > than;
+    }
+
+    private static boolean isSamePlayer(String playerId, String other) {
+        return playerId == null ? other == null : playerId.equals(other);
+    }
+
+    private static String pendingKey(String playerId, String leaderboardId) {
+        return playerId + "|" + leaderboardId;
+    }
+
+    // best submitted scores are remembered per player
+    private static String bestKey(String playerId, String leaderboardId) {
+        return BEST_KEY + playerId + "|" + leaderboardId;
+    }
+}
@@ -0,0 +1,44 @@
+package com.singlemalt.googleplay.auth.googleplayauth.lifecycle;
+
+import java.lang.ref.WeakReference;
+
+/**
+ * Weak reference to an activity or anything else with a shorter life than the holder.
+ * Long-lived singletons and tasks keep their activities through one of these, so a finished
+ * activity can be collected even if nobody detaches it.
+ */
+public final class WeakHandle<T> {
+    private volatile WeakReference<T> ref;
+
+    public WeakHandle() {
+        this(null);
+    }
+
+    public WeakHandle(T referent) {
+        set(referent);
+    }
+
+    /**
+     * Returns the referent, or null if none was set or it has been collected.
+     */
+    public T get() {
+        WeakReference<T> current = ref;
+        return current != null ? current.get() : null;
+    }
+
+    public synchronized void set(T referent) {
+        ref = referent != null ? new WeakReference<>(referent) : null;
+    }
+
+    /**
+     * Clears the handle if it still refers to the given referent, so a late detach does not
+     * drop a newer one.
+     */
+    public synchronized boolean clear(T referent) {
+        if (get() != referent) {
+            return false;
+        }
+        ref = null;
+        return true;
+    }
+}
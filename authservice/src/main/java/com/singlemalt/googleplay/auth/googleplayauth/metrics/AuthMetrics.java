@@ -0,0 +1,113 @@
+package com.singlemalt.googleplay.auth.googleplayauth.metrics;
+
+import android.os.SystemClock;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per phase login latency and retry/failure counters, readable from Unity as one compact JSON
+ * snapshot through AuthInstance.getMetrics().
+ */
+public class AuthMetrics {
+    public enum Phase {
+        // init() until AuthServiceActivity is created
+        ActivityLaunch,
+        // GoogleApiClient.connect() until onConnected
+        Connect,
+        // the onConnected handler itself
+        OnConnected,
+        // GoogleAuthUtil.getToken round trip, cache hits are not timed
+        TokenFetch,
+        // one HTTP round trip of ServerAuthRunner
+        ServerAuth,
+        // sending LoginResult to Unity
+        Dispatch,
+        // init() until LoginResult is sent
+        Login
+    }
+
+    private static final AuthMetrics ourInstance = new AuthMetrics();
+
+    private final LatencyHistogram[] histograms = new LatencyHistogram[Phase.values().length];
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong tokenCacheHits = new AtomicLong();
+
+    private volatile long loginStart;
+    private volatile long connectStart;
+
+    public static AuthMetrics getInstance() {
+        return ourInstance;
+    }
+
+    private AuthMetrics() {
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    public static long now() {
+        return SystemClock.elapsedRealtime();
+    }
+
+    public void record(Phase phase, long startedAt) {
+        histograms[phase.ordinal()].record(now() - startedAt);
+    }
+
+    public void markLoginStart() {
+        loginStart = now();
+    }
+
+    public long getLoginStart() {
+        return loginStart;
+    }
+
+    public void markConnectStart() {
+        connectStart = now();
+    }
+
+    /**
+     * Records the connect phase if a connect was started, once per connect.
+     */
+    public void recordConnected() {
+        long start = connectStart;
+        if (start != 0) {
+            connectStart = 0;
+            record(Phase.Connect, start);
+        }
+    }
+
+    public void countRetry() {
+        retries.incrementAndGet();
+    }
+
+    public void countFailure() {
+        failures.incrementAndGet();
+    }
+
+    public void countTokenCacheHit() {
+        tokenCacheHits.incrementAndGet();
+    }
+
+    /**
+     * Returns every phase's count, p50, p95, p99 and max in ms plus the counters, as JSON.
+     */
+    public String snapshot() {
+        StringBuilder builder = new StringBuilder(512);
+        builder.append('{');
+        for (Phase phase : Phase.values()) {
+            LatencyHistogram histogram = histograms[phase.ordinal()];
+            builder.append('"').append(phase.name()).append("\":{\"n\":").append(histogram.getCount())
+                    .append(",\"p50\":").append(histogram.percentile(0.50))
+                    .append(",\"p95\":").append(histogram.percentile(0.95))
+                    .append(",\"p99\":").append(histogram.percentile(0.99))
+                    .append(",\"max\":").append(histogram.getMax())
+                    .append("},");
+        }
+        builder.append("\"retries\":").append(retries.get())
+                .append(",\"failures\":").append(failures.get())
+                .append(",\"tokenCacheHits\":").append(tokenCacheHits.get())
+                .append('}');
+        return builder.toString();
+    }
+}
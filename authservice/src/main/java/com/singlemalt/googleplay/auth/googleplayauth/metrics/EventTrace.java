@@ -0,0 +1,137 @@
+package com.singlemalt.googleplay.auth.googleplayauth.metrics;
+
+import com.singlemalt.googleplay.auth.googleplayauth.BuildConfig;
+
+/**
+ * Fixed size ring buffer of auth events, each an event code, a timestamp and one numeric
+ * argument. Recording writes into preallocated arrays and builds no strings, so it is cheap
+ * on callback threads and never puts ids or tokens in logcat. Text is only built by
+ * {@link #dump()}.
+ *
+ * Tracing is on in debug builds of the library and off in release builds, set by the
+ * EVENT_TRACE build config field. When off the buffers are empty and every method returns
+ * before taking the lock, so a call costs no more than reading the flag.
+ */
+public final class EventTrace {
+    public static final boolean ENABLED = BuildConfig.EVENT_TRACE;
+
+    // power of two, the index wraps with a mask
+    private static final int CAPACITY = ENABLED ? 256 : 0;
+
+    public enum Event {
+        Init,
+        SilentSignIn,
+        ActivityStart,
+        OptimisticLogin,
+        OptimisticConfirmed,
+        OptimisticCorrected,
+        TokenPrefetch,
+        Pause,
+        Resume,
+        Shutdown,
+        Cancel,
+        StartOauth,
+        StatusNotReady,
+        // arg is the AuthInstance.Status ordinal
+        LoginResult,
+        // arg is the attempt a late update belonged to
+        StaleUpdate,
+        PlayerChange,
+        ClientCreated,
+        Connect,
+        // arg is the reconnect attempt
+        Reconnect,
+        Reconnected,
+        ConnectWaiting,
+        Connected,
+        ConnectionSuspended,
+        // arg is the ConnectionResult error code
+        ConnectionFailed,
+        ResolveStart,
+        ResolveInProgress,
+        ResolveUnavailable,
+        // arg is the activity result code
+        ResolveResult,
+        TokenCacheHit,
+        TokenFetch,
+        TokenRecoverable,
+        TokenSet,
+        ServerAuthStart,
+        ServerAuthInFlight,
+        // arg is the delay in ms
+        ServerAuthRetry,
+        ServerAuthFailover,
+        ServerAuthHedge,
+        ServerAuthHedgeDiscarded,
+        SessionCookie,
+        AnonymousSession,
+        SessionResumed,
+        SessionRejected,
+        TokenRefresh,
+        SessionRefresh,
+        ConnectionWarm,
+        ConnectionWarmWait,
+        HttpReauth,
+        ExecutorShutdown
+    }
+
+    private static final Event[] EVENTS = Event.values();
+
+    private static final int[] codes = new int[CAPACITY];
+    private static final long[] times = new long[CAPACITY];
+    private static final long[] args = new long[CAPACITY];
+    // total events recorded, the next slot is count & (CAPACITY - 1)
+    private static long count = 0;
+
+    private EventTrace() { }
+
+    public static void record(Event event) {
+        record(event, 0);
+    }
+
+    public static void record(Event event, long arg) {
+        if (!ENABLED) {
+            return;
+        }
+
+        long now = AuthMetrics.now();
+        synchronized (codes) {
+            int slot = (int) (count++ & (CAPACITY - 1));
+            codes[slot] = event.ordinal();
+            times[slot] = now;
+            args[slot] = arg;
+        }
+    }
+
+    /**
+     * Returns the buffered events oldest first, one "time event arg" line each, with times in
+     * ms since boot.
+     */
+    public static String dump() {
+        if (!ENABLED) {
+            return "";
+        }
+
+        StringBuilder out = new StringBuilder();
+        synchronized (codes) {
+            long first = Math.max(0, count - CAPACITY);
+            for (long i = first; i < count; i++) {
+                int slot = (int) (i & (CAPACITY - 1));
+                out.append(times[slot]).append(' ')
+                        .append(EVENTS[codes[slot]].name()).append(' ')
+                        .append(args[slot]).append('\n');
+            }
+        }
+        return out.toString();
+    }
+
+    public static void clear() {
+        if (!ENABLED) {
+            return;
+        }
+
+        synchronized (codes) {
+            count = 0;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.singlemalt.googleplay.auth.googleplayauth.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed bucket latency histogram. Recording is a couple of atomic increments and allocates
+ * nothing, percentiles are reported as the upper bound of the bucket they fall in.
+ */
+public class LatencyHistogram {
+    // bucket upper bounds in ms, the last bucket takes everything above
+    private static final long[] BOUNDS = {
+            5, 10, 25, 50, 100, 175, 250, 375, 500, 750, 1000, 1500, 2000, 3000, 5000, 7500,
+            10000, 15000, 20000, 30000
+    };
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BOUNDS.length + 1);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long millis) {
+        int index = 0;
+        while (index < BOUNDS.length && millis > BOUNDS[index]) {
+            index++;
+        }
+        buckets.incrementAndGet(index);
+        count.incrementAndGet();
+
+        long currentMax = max.get();
+        while (millis > currentMax && !max.compareAndSet(currentMax, millis)) {
+            currentMax = max.get();
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Returns the latency below which the given fraction of samples fall, e.g. 0.95 for p95.
+     */
+    public long percentile(double fraction) {
+        long total = count.get();
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(fraction * total));
+        long seen = 0;
+        for (int i = 0; i < buckets.length(); i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) {
+                return i < BOUNDS.length ? Math.min(BOUNDS[i], max.get()) : max.get();
+            }
+        }
+        return max.get();
+    }
+}
@@ -0,0 +1,74 @@
+package com.singlemalt.googleplay.auth.googleplayauth.net;
+
+import android.util.Log;
+
+import com.singlemalt.googleplay.auth.googleplayauth.AuthInstance;
+import com.singlemalt.googleplay.auth.googleplayauth.metrics.EventTrace;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+
+/**
+ * HTTP client for the game's own API calls. It sends through the auth transport, so requests
+ * share its pooled connections and cookie jar and carry the session automatically. A 401 runs
+ * server auth once more and repeats the request with the new session.
+ *
+ * A repeated request writes its body again, streaming {@link AuthRequest.BodyWriter}s must be
+ * able to do that.
+ */
+public class AuthHttpClient {
+    public interface Reauthenticator {
+        /**
+         * Gets a new session, returns false if there is none to be had. Blocks.
+         */
+        boolean reauthenticate() throws IOException;
+    }
+
+    private final AuthTransport transport;
+    private final Reauthenticator reauthenticator;
+
+    private static class Result<T> {
+        boolean unauthorized;
+        T value;
+    }
+
+    public AuthHttpClient(AuthTransport transport, Reauthenticator reauthenticator) {
+        this.transport = transport;
+        this.reauthenticator = reauthenticator;
+    }
+
+    /**
+     * Sends the request and hands the response to the handler. Blocks, do not call on the UI
+     * thread.
+     */
+    public <T> T execute(AuthRequest request, AuthTransport.ResponseHandler<T> handler)
+            throws IOException {
+        Result<T> result = send(request, handler, true);
+        if (!result.unauthorized) {
+            return result.value;
+        }
+
+        EventTrace.record(EventTrace.Event.HttpReauth);
+        if (!reauthenticator.reauthenticate()) {
+            Log.w(AuthInstance.TAG, "AuthHttpClient could not re-authenticate");
+        }
+        return send(request, handler, false).value;
+    }
+
+    private <T> Result<T> send(AuthRequest request,
+                               final AuthTransport.ResponseHandler<T> handler,
+                               final boolean canRetry) throws IOException {
+        return transport.execute(request, new AuthTransport.ResponseHandler<Result<T>>() {
+            @Override
+            public Result<T> handle(AuthResponse response) throws IOException {
+                Result<T> result = new Result<>();
+                if (canRetry && response.getCode() == HttpURLConnection.HTTP_UNAUTHORIZED) {
+                    result.unauthorized = true;
+                } else {
+                    result.value = handler.handle(response);
+                }
+                return result;
+            }
+        });
+    }
+}
@@ -0,0 +1,91 @@
+package com.singlemalt.googleplay.auth.googleplayauth.net;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A request for an {@link AuthTransport}: method, url, headers and an optional body.
+ */
+public class AuthRequest {
+    public interface BodyWriter {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    private final String method;
+    private final String url;
+    private final Map<String, String> headers = new LinkedHashMap<>();
+    private String contentType;
+    private BodyWriter body;
+    private int contentLength = -1;
+
+    public AuthRequest(String method, String url) {
+        this.method = method;
+        this.url = url;
+    }
+
+    /**
+     * Returns a request with the same method, url, headers and body, whose headers can be
+     * changed without touching this one.
+     */
+    public AuthRequest copy() {
+        AuthRequest copy = new AuthRequest(method, url);
+        copy.headers.putAll(headers);
+        copy.contentType = contentType;
+        copy.body = body;
+        copy.contentLength = contentLength;
+        return copy;
+    }
+
+    public AuthRequest header(String name, String value) {
+        headers.put(name, value);
+        return this;
+    }
+
+    public AuthRequest body(String contentType, final byte[] data) {
+        this.contentType = contentType;
+        this.contentLength = data.length;
+        this.body = new BodyWriter() {
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                out.write(data);
+            }
+        };
+        return this;
+    }
+
+    /**
+     * Sets a body of unknown length, which is written straight to the connection.
+     */
+    public AuthRequest body(String contentType, BodyWriter body) {
+        this.contentType = contentType;
+        this.contentLength = -1;
+        this.body = body;
+        return this;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public BodyWriter getBody() {
+        return body;
+    }
+
+    public int getContentLength() {
+        return contentLength;
+    }
+}
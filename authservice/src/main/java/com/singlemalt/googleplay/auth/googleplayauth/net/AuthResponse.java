@@ -0,0 +1,50 @@
+package com.singlemalt.googleplay.auth.googleplayauth.net;
+
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Status, headers and the already decompressed body of a response from an {@link AuthTransport}.
+ */
+public class AuthResponse {
+    private final int code;
+    private final Map<String, List<String>> headers;
+    private final InputStream body;
+
+    public AuthResponse(int code, Map<String, List<String>> headers, InputStream body) {
+        this.code = code;
+        this.headers = headers;
+        this.body = body;
+    }
+
+    public int getCode() {
+        return code;
+    }
+
+    public InputStream getBody() {
+        return body;
+    }
+
+    public Map<String, List<String>> getHeaderFields() {
+        return headers;
+    }
+
+    /**
+     * Returns every value of the header, matched case-insensitively.
+     */
+    public List<String> getHeaders(String name) {
+        for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
+            if (entry.getKey() != null && entry.getKey().equalsIgnoreCase(name)) {
+                return entry.getValue();
+            }
+        }
+        return Collections.emptyList();
+    }
+
+    public String getHeader(String name) {
+        List<String> values = getHeaders(name);
+        return values.isEmpty() ? null : values.get(0);
+    }
+}
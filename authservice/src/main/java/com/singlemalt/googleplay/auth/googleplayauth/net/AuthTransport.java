@@ -0,0 +1,18 @@
+package com.singlemalt.googleplay.auth.googleplayauth.net;
+
+import java.io.IOException;
+
+/**
+ * Sends auth requests to our server. The default is {@link HttpUrlTransport}, tests can plug in
+ * a local stub through {@link com.singlemalt.googleplay.auth.googleplayauth.AuthInstance#setTransport}.
+ */
+public interface AuthTransport {
+    interface ResponseHandler<T> {
+        /**
+         * Reads what it needs from the response. The body stream is only valid during this call.
+         */
+        T handle(AuthResponse response) throws IOException;
+    }
+
+    <T> T execute(AuthRequest request, ResponseHandler<T> handler) throws IOException;
+}
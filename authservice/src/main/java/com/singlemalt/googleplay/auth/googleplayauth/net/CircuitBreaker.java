@@ -0,0 +1,78 @@
+package com.singlemalt.googleplay.auth.googleplayauth.net;
+
+/**
+ * Client side circuit breaker. Opens after a run of consecutive failures so we stop hitting a
+ * struggling server, then lets a single trial request through once the cool down has passed.
+ */
+public class CircuitBreaker {
+    private enum State {
+        Closed,
+        Open,
+        HalfOpen
+    }
+
+    private final int failureThreshold;
+    private final long coolDownMs;
+
+    private State state = State.Closed;
+    private int failures = 0;
+    private long openedAt = 0;
+
+    public CircuitBreaker(int failureThreshold, long coolDownMs) {
+        this.failureThreshold = failureThreshold;
+        this.coolDownMs = coolDownMs;
+    }
+
+    /**
+     * Returns true if {@link #tryAcquire} would let a request through now. Does not change
+     * state, so it is safe to ask about endpoints we end up not sending to.
+     */
+    public synchronized boolean isAvailable(long now) {
+        switch (state) {
+            case Closed:
+                return true;
+            case Open:
+                return now - openedAt >= coolDownMs;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Returns true if a request may be sent now. Once the cool down has passed this lets one
+     * trial through, which must report back with recordSuccess or recordFailure. Only call it
+     * for a request that is actually sent.
+     */
+    public synchronized boolean tryAcquire(long now) {
+        switch (state) {
+            case Closed:
+                return true;
+            case Open:
+                if (now - openedAt >= coolDownMs) {
+                    state = State.HalfOpen;
+                    return true;
+                }
+                return false;
+            default:
+                // a trial request is already out, its result closes or reopens the circuit
+                return false;
+        }
+    }
+
+    public synchronized void recordSuccess() {
+        state = State.Closed;
+        failures = 0;
+    }
+
+    public synchronized void recordFailure(long now) {
+        failures++;
+        if (state == State.HalfOpen || failures >= failureThreshold) {
+            state = State.Open;
+            openedAt = now;
+        }
+    }
+
+    public synchronized boolean isOpen() {
+        return state != State.Closed;
+    }
+}
@@ -0,0 +1,90 @@
+package com.singlemalt.googleplay.auth.googleplayauth.net;
+
+import android.util.Log;
+
+import com.singlemalt.googleplay.auth.googleplayauth.AuthInstance;
+import com.singlemalt.googleplay.auth.googleplayauth.metrics.EventTrace;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Opens a connection to the auth server while Google sign in is still running, so DNS, TCP and
+ * TLS setup are done by the time the auth POST goes out.
+ *
+ * The warm up is a HEAD request through the same transport. Its body is drained, so the
+ * connection and TLS session go back to the pool and the auth request picks them up.
+ */
+public class ConnectionWarmer {
+    private final Map<String, Future<?>> warming = new ConcurrentHashMap<>();
+
+    /**
+     * Starts warming a connection to the origin of the url, unless one is already on its way.
+     */
+    public void warm(ExecutorService executor, final AuthTransport transport, final String url) {
+        final String origin = origin(url);
+        if (origin == null) {
+            return;
+        }
+
+        Future<?> current = warming.get(origin);
+        if (current != null && !current.isDone()) {
+            return;
+        }
+
+        warming.put(origin, executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                EventTrace.record(EventTrace.Event.ConnectionWarm);
+                try {
+                    transport.execute(new AuthRequest("HEAD", url),
+                            new AuthTransport.ResponseHandler<Void>() {
+                        @Override
+                        public Void handle(AuthResponse response) {
+                            return null;
+                        }
+                    });
+                } catch (IOException e) {
+                    Log.w(AuthInstance.TAG, "connection warm up failed", e);
+                }
+            }
+        }));
+    }
+
+    /**
+     * Waits up to timeoutMs for a warm up to the url's origin that is still connecting, so the
+     * caller reuses its connection instead of opening a second one next to it.
+     */
+    public void await(String url, long timeoutMs) {
+        String origin = origin(url);
+        Future<?> current = origin != null ? warming.get(origin) : null;
+        if (current == null || current.isDone()) {
+            return;
+        }
+
+        try {
+            current.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException | ExecutionException e) {
+            EventTrace.record(EventTrace.Event.ConnectionWarmWait);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static String origin(String url) {
+        try {
+            URL parsed = new URL(url);
+            return parsed.getProtocol() + "://" + parsed.getAuthority();
+        } catch (MalformedURLException e) {
+            return null;
+        }
+    }
+}
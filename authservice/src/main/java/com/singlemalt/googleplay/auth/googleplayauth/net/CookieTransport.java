@@ -0,0 +1,96 @@
+package com.singlemalt.googleplay.auth.googleplayauth.net;
+
+import java.io.IOException;
+import java.net.CookieHandler;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Wraps another {@link AuthTransport} with a cookie jar: matching cookies are attached to each
+ * request, and Set-Cookie headers of each response are stored. A request that already carries a
+ * Cookie header is sent as is.
+ */
+public class CookieTransport implements AuthTransport {
+    private volatile AuthTransport delegate;
+    private volatile CookieHandler cookies;
+
+    public CookieTransport(AuthTransport delegate) {
+        this.delegate = delegate;
+    }
+
+    public AuthTransport getDelegate() {
+        return delegate;
+    }
+
+    public void setDelegate(AuthTransport delegate) {
+        this.delegate = delegate;
+    }
+
+    public CookieHandler getCookieHandler() {
+        return cookies;
+    }
+
+    /**
+     * Sets the cookie jar, null sends requests without any cookie handling.
+     */
+    public void setCookieHandler(CookieHandler cookies) {
+        this.cookies = cookies;
+    }
+
+    @Override
+    public <T> T execute(AuthRequest request, final ResponseHandler<T> handler) throws IOException {
+        final CookieHandler jar = cookies;
+        if (jar == null) {
+            return delegate.execute(request, handler);
+        }
+
+        final URI uri = toUri(request.getUrl());
+        if (!hasHeader(request, "Cookie")) {
+            List<String> values = jar.get(uri, Collections.<String, List<String>>emptyMap())
+                    .get("Cookie");
+            if (values != null && !values.isEmpty()) {
+                request = request.copy().header("Cookie", join(values));
+            }
+        }
+
+        return delegate.execute(request, new ResponseHandler<T>() {
+            @Override
+            public T handle(AuthResponse response) throws IOException {
+                jar.put(uri, response.getHeaderFields());
+                return handler.handle(response);
+            }
+        });
+    }
+
+    private static boolean hasHeader(AuthRequest request, String name) {
+        for (Map.Entry<String, String> header : request.getHeaders().entrySet()) {
+            if (header.getKey().equalsIgnoreCase(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String join(List<String> values) {
+        StringBuilder joined = new StringBuilder();
+        for (String value : values) {
+            if (joined.length() > 0) {
+                joined.append("; ");
+            }
+            joined.append(value);
+        }
+        return joined.toString();
+    }
+
+    private static URI toUri(String url) throws IOException {
+        try {
+            return new URL(url).toURI();
+        } catch (URISyntaxException e) {
+            throw new IOException("Bad url " + url, e);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.singlemalt.googleplay.auth.googleplayauth.net;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Ranks our regional auth endpoints by a moving average of latency and error rate, so auth goes
+ * to the best one and fails over down the list. Each endpoint has its own circuit breaker.
+ */
+public class EndpointSelector {
+    // weight of the newest sample in the moving averages
+    private static final double ALPHA = 0.3;
+    // how much an error rate of 1 counts against an endpoint, in ms
+    private static final double ERROR_PENALTY_MS = 5000;
+
+    public static class Endpoint {
+        public final String url;
+        private final CircuitBreaker breaker = new CircuitBreaker(5, 30000);
+        private double latencyMs = 0;
+        private double errorRate = 0;
+
+        Endpoint(String url) {
+            this.url = url;
+        }
+
+        synchronized double score() {
+            return latencyMs + errorRate * ERROR_PENALTY_MS;
+        }
+
+        public synchronized void recordSuccess(long latency) {
+            latencyMs = latencyMs == 0 ? latency : ALPHA * latency + (1 - ALPHA) * latencyMs;
+            errorRate = (1 - ALPHA) * errorRate;
+            breaker.recordSuccess();
+        }
+
+        public synchronized void recordFailure(long now) {
+            errorRate = ALPHA + (1 - ALPHA) * errorRate;
+            breaker.recordFailure(now);
+        }
+
+        boolean isAvailable(long now) {
+            return breaker.isAvailable(now);
+        }
+
+        /**
+         * Claims the endpoint for a request about to be sent. Returns false if its circuit
+         * opened, or its one half-open trial was taken, since it was ranked.
+         */
+        public boolean acquire(long now) {
+            return breaker.tryAcquire(now);
+        }
+    }
+
+    private static final Comparator<Endpoint> BY_SCORE = new Comparator<Endpoint>() {
+        @Override
+        public int compare(Endpoint lhs, Endpoint rhs) {
+            return Double.compare(lhs.score(), rhs.score());
+        }
+    };
+
+    private final List<Endpoint> endpoints = new ArrayList<>();
+
+    public EndpointSelector(String... urls) {
+        for (String url : urls) {
+            endpoints.add(new Endpoint(url));
+        }
+    }
+
+    public boolean hasUrls(String... urls) {
+        if (urls.length != endpoints.size()) {
+            return false;
+        }
+        for (int i = 0; i < urls.length; i++) {
+            if (!endpoints.get(i).url.equals(urls[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The first configured endpoint.
+     */
+    public String getPrimaryUrl() {
+        return endpoints.isEmpty() ? null : endpoints.get(0).url;
+    }
+
+    /**
+     * The endpoint auth would try first now, or the first configured one if every circuit is
+     * open. Claims nothing.
+     */
+    public String getPreferredUrl(long now) {
+        Endpoint best = null;
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint.isAvailable(now)
+                    && (best == null || BY_SCORE.compare(endpoint, best) < 0)) {
+                best = endpoint;
+            }
+        }
+        return best != null ? best.url : getPrimaryUrl();
+    }
+
+    /**
+     * Returns the endpoints whose circuit allows a request now, best first. Endpoints without
+     * samples keep their configured order. Ranking claims nothing, acquire the endpoint before
+     * sending to it.
+     */
+    public List<Endpoint> ranked(long now) {
+        List<Endpoint> available = new ArrayList<>(endpoints.size());
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint.isAvailable(now)) {
+                available.add(endpoint);
+            }
+        }
+        // stable sort, ties keep the configured order
+        Collections.sort(available, BY_SCORE);
+        return available;
+    }
+}
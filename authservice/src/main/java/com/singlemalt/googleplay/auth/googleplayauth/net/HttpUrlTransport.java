@@ -0,0 +1,137 @@
+package com.singlemalt.googleplay.auth.googleplayauth.net;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Default {@link AuthTransport} on top of HttpURLConnection.
+ *
+ * Connections are never disconnected, bodies are drained and closed instead, so the platform
+ * keeps them alive and pools them for the next request to the same host. Responses are
+ * negotiated as gzip, and request bodies are gzipped once a host has said it accepts gzip.
+ */
+public class HttpUrlTransport implements AuthTransport {
+    private static final int DEFAULT_TIMEOUT_MS = 20000;
+
+    private final Map<String, Boolean> gzipHosts = new ConcurrentHashMap<>();
+    private volatile int connectTimeout = DEFAULT_TIMEOUT_MS;
+    private volatile int readTimeout = DEFAULT_TIMEOUT_MS;
+
+    public void setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    public void setReadTimeout(int readTimeout) {
+        this.readTimeout = readTimeout;
+    }
+
+    @Override
+    public <T> T execute(AuthRequest request, ResponseHandler<T> handler) throws IOException {
+        URL url = new URL(request.getUrl());
+        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        boolean reusable = false;
+
+        try {
+            conn.setInstanceFollowRedirects(false);
+            conn.setRequestMethod(request.getMethod());
+            conn.setConnectTimeout(connectTimeout);
+            conn.setReadTimeout(readTimeout);
+            conn.setUseCaches(false);
+            conn.setRequestProperty("Connection", "keep-alive");
+            conn.setRequestProperty("Accept-Encoding", "gzip");
+            for (Map.Entry<String, String> header : request.getHeaders().entrySet()) {
+                conn.setRequestProperty(header.getKey(), header.getValue());
+            }
+
+            if (request.getBody() != null) {
+                writeBody(conn, url.getHost(), request);
+            }
+
+            int code = conn.getResponseCode();
+            rememberGzip(url.getHost(), conn.getHeaderField("Accept-Encoding"));
+
+            InputStream raw = code >= 400 ? conn.getErrorStream() : conn.getInputStream();
+            if (raw == null) {
+                raw = new ByteArrayInputStream(new byte[0]);
+            }
+
+            InputStream body = decode(raw, conn.getContentEncoding());
+            try {
+                T result = handler.handle(new AuthResponse(code, conn.getHeaderFields(), body));
+                drain(body);
+                reusable = true;
+                return result;
+            } finally {
+                body.close();
+            }
+        } finally {
+            if (!reusable) {
+                // do not hand a half read connection back to the pool
+                conn.disconnect();
+            }
+        }
+    }
+
+    private void writeBody(HttpURLConnection conn, String host, AuthRequest request)
+            throws IOException {
+        boolean gzip = Boolean.TRUE.equals(gzipHosts.get(host));
+
+        conn.setDoOutput(true);
+        conn.setRequestProperty("Content-Type", request.getContentType());
+        if (gzip) {
+            conn.setRequestProperty("Content-Encoding", "gzip");
+            conn.setChunkedStreamingMode(0);
+        } else if (request.getContentLength() >= 0) {
+            conn.setFixedLengthStreamingMode(request.getContentLength());
+        } else {
+            conn.setChunkedStreamingMode(0);
+        }
+
+        OutputStream out = conn.getOutputStream();
+        if (gzip) {
+            out = new GZIPOutputStream(out);
+        }
+        try {
+            request.getBody().writeTo(out);
+        } finally {
+            out.close();
+        }
+    }
+
+    private void rememberGzip(String host, String acceptEncoding) {
+        if (acceptEncoding != null && acceptEncoding.toLowerCase().contains("gzip")) {
+            gzipHosts.put(host, Boolean.TRUE);
+        }
+    }
+
+    // HEAD, 204 and 304 responses may say gzip but carry no body for GZIPInputStream to read
+    private static InputStream decode(InputStream raw, String contentEncoding) throws IOException {
+        if (!"gzip".equalsIgnoreCase(contentEncoding)) {
+            return raw;
+        }
+
+        PushbackInputStream in = new PushbackInputStream(raw, 1);
+        int first = in.read();
+        if (first == -1) {
+            return in;
+        }
+        in.unread(first);
+        return new GZIPInputStream(in);
+    }
+
+    private static void drain(InputStream in) throws IOException {
+        byte[] buffer = new byte[1024];
+        while (in.read(buffer) != -1) {
+            // discard whatever the handler did not read
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.singlemalt.googleplay.auth.googleplayauth.net;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+/**
+ * Capped exponential backoff with full jitter, honoring Retry-After on 429 and 503.
+ */
+public class RetryPolicy {
+    public static final long NO_RETRY = -1;
+
+    private final int maxAttempts;
+    private final long baseDelayMs;
+    private final long maxDelayMs;
+    private final Random random = new Random();
+
+    public RetryPolicy(int maxAttempts, long baseDelayMs, long maxDelayMs) {
+        this.maxAttempts = maxAttempts;
+        this.baseDelayMs = baseDelayMs;
+        this.maxDelayMs = maxDelayMs;
+    }
+
+    public static boolean isRetryable(int code) {
+        return code == 408 || code == 429 || code == 500 || code == 502 || code == 503
+                || code == 504;
+    }
+
+    /**
+     * Returns how long to wait before the next attempt after a failed one, or NO_RETRY if
+     * attempts are used up. Attempts count from 1.
+     */
+    public long delayFor(int attempt) {
+        if (attempt >= maxAttempts) {
+            return NO_RETRY;
+        }
+
+        long ceiling = maxDelayMs;
+        if (attempt < 31) {
+            ceiling = Math.min(maxDelayMs, baseDelayMs << (attempt - 1));
+        }
+        return (long) (random.nextDouble() * ceiling);
+    }
+
+    /**
+     * Like {@link #delayFor(int)} but waits at least as long as the server asked for in
+     * Retry-After. Gives up if the server asks for longer than the maximum delay.
+     */
+    public long delayFor(int attempt, int code, String retryAfter) {
+        long delay = delayFor(attempt);
+        if (delay == NO_RETRY || retryAfter == null || (code != 429 && code != 503)) {
+            return delay;
+        }
+
+        long requested = parseRetryAfter(retryAfter, System.currentTimeMillis());
+        if (requested > maxDelayMs) {
+            return NO_RETRY;
+        }
+        return Math.max(delay, requested);
+    }
+
+    // Retry-After is either delta seconds or an HTTP date
+    static long parseRetryAfter(String value, long now) {
+        try {
+            return Math.max(0, Long.parseLong(value.trim()) * 1000);
+        } catch (NumberFormatException e) {
+            // not seconds, try a date
+        }
+
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        try {
+            Date date = format.parse(value.trim());
+            return Math.max(0, date.getTime() - now);
+        } catch (ParseException e) {
+            return 0;
+        }
+    }
+}
@@ -2,112 +2,707 @@ package com.singlemalt.googleplay.auth.googleplayauth.runners;
 
 import android.util.Log;
 
-import com.google.gson.Gson;
 import com.singlemalt.googleplay.auth.googleplayauth.AuthInstance;
-import com.singlemalt.googleplay.auth.googleplayauth.AuthServiceActivity;
+import com.singlemalt.googleplay.auth.googleplayauth.cache.SessionStore;
+import com.singlemalt.googleplay.auth.googleplayauth.cache.TokenCache;
+import com.singlemalt.googleplay.auth.googleplayauth.codec.AuthCodec;
+import com.singlemalt.googleplay.auth.googleplayauth.codec.RequestPojo;
+import com.singlemalt.googleplay.auth.googleplayauth.codec.ServerPlayer;
+import com.singlemalt.googleplay.auth.googleplayauth.concurrent.AuthExecutor;
+import com.singlemalt.googleplay.auth.googleplayauth.concurrent.SingleFlight;
+import com.singlemalt.googleplay.auth.googleplayauth.metrics.AuthMetrics;
+import com.singlemalt.googleplay.auth.googleplayauth.metrics.EventTrace;
+import com.singlemalt.googleplay.auth.googleplayauth.net.AuthRequest;
+import com.singlemalt.googleplay.auth.googleplayauth.net.AuthResponse;
+import com.singlemalt.googleplay.auth.googleplayauth.net.AuthTransport;
+import com.singlemalt.googleplay.auth.googleplayauth.net.EndpointSelector;
+import com.singlemalt.googleplay.auth.googleplayauth.net.RetryPolicy;
+import com.unity3d.player.UnityPlayer;
 
-import java.io.BufferedReader;
-import java.io.DataOutputStream;
-import java.io.InputStreamReader;
+import java.io.IOException;
+import java.net.CookieManager;
+import java.net.CookiePolicy;
+import java.net.CookieStore;
 import java.net.HttpCookie;
 import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.net.URL;
-import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Created by singlemalt on 4/12/2016.
  */
 public class ServerAuthRunner implements Runnable {
-    public class RequestPojo {
-        public String playerId;
-        public String serverPlayerId;
-        public String network;
-        public String playerName;
-        public String token;
-
-        public RequestPojo(String playerId, String serverPlayerId, String network, String playerName, String token) {
-            this.playerId = playerId;
-            this.serverPlayerId = serverPlayerId;
-            this.network = network;
-            this.playerName = playerName;
+    private static final SingleFlight<Result> serverFlights = new SingleFlight<>();
+    private static final RetryPolicy retryPolicy = new RetryPolicy(4, 500, 30000);
+    // longest we wait for a warm up that is still connecting before opening our own connection
+    private static final long WARM_WAIT_MS = 3000;
+    private static final int UNSUPPORTED_MEDIA_TYPE = 415;
+
+    private final boolean refresh;
+    private final boolean anonymousPhase;
+    // a background refresh keeps its failures to itself, the session in use stays valid
+    private final boolean background;
+    // login attempt this runner reports to, a later attempt ignores it
+    private volatile int loginAttempt;
+    // token of the last request this runner sent
+    private volatile String sentToken;
+    private volatile boolean succeeded;
+
+    // what a finished flight ran with, so callers queued with other inputs can tell
+    static final class Result {
+        final String token;
+        final boolean success;
+        // login attempt the flight reported to
+        final int attempt;
+        final boolean background;
+
+        Result(String token, boolean success, int attempt, boolean background) {
             this.token = token;
+            this.success = success;
+            this.attempt = attempt;
+            this.background = background;
+        }
+    }
+
+    public ServerAuthRunner() {
+        this(false);
+    }
+
+    /**
+     * A refresh runner always runs the full auth to get a new session, it never resumes the
+     * stored one.
+     */
+    public ServerAuthRunner(boolean refresh) {
+        this(refresh, false, false);
+    }
+
+    private ServerAuthRunner(boolean refresh, boolean anonymousPhase, boolean background) {
+        this.refresh = refresh;
+        this.anonymousPhase = anonymousPhase;
+        this.background = background;
+    }
+
+    /**
+     * First phase of two phase auth: opens an anonymous session for the stored server player
+     * id without waiting for a Google token. Sends SessionReady to Unity once the session
+     * exists. The full auth that follows waits for this call and then upgrades the session,
+     * its request carries the anonymous session cookie so the server can link the two.
+     */
+    public static void openAnonymousSession() {
+        final SingleFlight.Call<Result> call = serverFlights.join(anonymousFlightKey());
+        if (!call.claim()) {
+            return;
         }
+
+        // on the I/O pool so it never holds a scheduler thread the sign in needs
+        AuthExecutor.getIoExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                new ServerAuthRunner(true, true, false).start(call);
+            }
+        });
     }
 
-    private class ServerPlayer {
-        public String realPlayerID;
-        public String playerName;
-        public boolean isAnonymous;
+    /**
+     * Runs a full server auth for a new session, or waits for the one already in flight.
+     * Returns whether server auth ended up successful. Blocks, do not call on the UI thread.
+     */
+    public static boolean reauthenticate() throws IOException {
+        return awaitFlight(false);
     }
 
-    public ServerAuthRunner() { }
+    /**
+     * Runs a full server auth to renew the session ahead of its expiry, or waits for the one
+     * already in flight. Unlike {@link #reauthenticate()} a failure is not reported to the
+     * game, the current session is still good until it expires. Returns whether a new session
+     * was opened. Blocks, do not call on the UI thread.
+     */
+    public static boolean refreshSession() throws IOException {
+        return awaitFlight(true);
+    }
+
+    private static boolean awaitFlight(boolean background) throws IOException {
+        int attempt = AuthInstance.getInstance().getState().attempt;
+        SingleFlight.Call<Result> call = serverFlights.join(flightKey());
+        if (call.claim()) {
+            new ServerAuthRunner(true, false, background).start(call);
+            return succeeded(call.await());
+        }
+        Result result = call.await();
+        if (needsRerun(result, attempt, null, !background)) {
+            // joined a flight from an earlier attempt, its updates were dropped as stale
+            call = serverFlights.join(flightKey());
+            if (call.claim()) {
+                new ServerAuthRunner(true, false, background).start(call);
+            }
+            result = call.await();
+        }
+        return succeeded(result);
+    }
+
+    private static boolean succeeded(Result result) {
+        return result != null && result.success;
+    }
+
+    /**
+     * Whether a caller that joined a finished flight has to run its own: the flight reported to
+     * an earlier login attempt, so its updates were dropped as stale, or it went out with an
+     * older token than the caller's, or it was a background refresh that kept its failure to
+     * itself while the caller has to report one.
+     */
+    static boolean needsRerun(Result result, int attempt, String token, boolean foreground) {
+        if (result == null) {
+            return token != null;
+        }
+        return result.attempt != attempt
+                || (token != null && !token.equals(result.token))
+                || (foreground && result.background && !result.success);
+    }
 
     @Override
     public void run() {
-        Log.d(AuthInstance.TAG, "ServerAuthRunner starting...");
-        HttpURLConnection conn = null;
+        SingleFlight.Call<Result> anonymous = serverFlights.find(anonymousFlightKey());
+        if (anonymous != null) {
+            // upgrade the anonymous session once it exists
+            anonymous.addCallback(new SingleFlight.Callback<Result>() {
+                @Override
+                public void onResult(Result result, Exception error) {
+                    AuthExecutor.getInstance().execute(ServerAuthRunner.this);
+                }
+            });
+            return;
+        }
 
-        try {
-            RequestPojo data = new RequestPojo(AuthInstance.getInstance().getPlayerId(),
-                    AuthInstance.getInstance().getServerPlayerId(), "GOOGLE",
-                    AuthInstance.getInstance().getPlayerName(),
-                    AuthInstance.getInstance().getOauthToken());
-            String postString = new Gson().toJson(data);
-            byte[] postData = postString.getBytes(Charset.defaultCharset());
-            int postDataLength = postData.length;
-
-            URL url = new URL(AuthInstance.getInstance().getServerUrl());
-            conn = (HttpURLConnection) url.openConnection();
-            conn.setDoOutput(true);
-            conn.setInstanceFollowRedirects(false);
-            conn.setRequestMethod("POST");
-            conn.setConnectTimeout(20000);
-            conn.setRequestProperty("Content-Type", "application/json; charset=utf-8");
-            conn.setRequestProperty("Content-Length", Integer.toString(postDataLength));
-            conn.setUseCaches(false);
-
-            DataOutputStream wr = new DataOutputStream( conn.getOutputStream());
-            wr.write( postData );
-            wr.close();
-
-            if(conn.getResponseCode() == 200) {
-                BufferedReader reader = new BufferedReader(new InputStreamReader(conn.getInputStream()));
-                ServerPlayer player = new Gson().fromJson(reader, ServerPlayer.class);
-                AuthInstance.getInstance().setServerPlayerId(player.realPlayerID);
-                AuthInstance.getInstance().setPlayerName(player.playerName);
-                AuthInstance.getInstance().setAnonymous(player.isAnonymous);
-
-                Map<String, List<String>> headerFields = conn.getHeaderFields();
-                List<String> cookiesHeader = headerFields.get("Set-Cookie");
-
-                if(cookiesHeader.size() > 0) {
-                    Log.d(AuthInstance.TAG, "Getting session cookie");
-                    for(String cookie : cookiesHeader) {
-                        List<HttpCookie> httpCookies = HttpCookie.parse(cookie);
-
-                        AuthInstance.getInstance().setSessionToken(httpCookies.get(0).getValue());
-                        Log.d(AuthInstance.TAG, "Cookie found: "+ AuthInstance.getInstance().getSessionToken());
+        final String token = AuthInstance.getInstance().getOauthToken();
+        SingleFlight.Call<Result> call = serverFlights.join(flightKey());
+        if (!call.claim()) {
+            // the running auth updates AuthInstance and checks status for us
+            EventTrace.record(EventTrace.Event.ServerAuthInFlight);
+            call.addCallback(new SingleFlight.Callback<Result>() {
+                @Override
+                public void onResult(Result result, Exception error) {
+                    int attempt = AuthInstance.getInstance().getState().attempt;
+                    if (needsRerun(result, attempt, token, true)) {
+                        AuthExecutor.getInstance().execute(new ServerAuthRunner(refresh));
                     }
                 }
+            });
+            return;
+        }
+        start(call);
+    }
+
+    private static String flightKey() {
+        String account = AuthInstance.getInstance().getAccountName();
+        return SingleFlight.key("server", account != null ? account : "anonymous",
+                AuthInstance.getInstance().getServerUrl());
+    }
+
+    private static String anonymousFlightKey() {
+        return SingleFlight.key("session", "anonymous", AuthInstance.getInstance().getServerUrl());
+    }
+
+    private void start(SingleFlight.Call<Result> call) {
+        EventTrace.record(EventTrace.Event.ServerAuthStart);
+        loginAttempt = AuthInstance.getInstance().getState().attempt;
+        sentToken = AuthInstance.getInstance().getOauthToken();
+        if (!refresh && resumeSession()) {
+            succeeded = true;
+            AuthInstance.getInstance().setServerAuthStatus(loginAttempt,
+                    AuthInstance.Status.Success);
+            finish(call);
+            return;
+        }
+
+        attempt(call, 1);
+    }
+
+    private void attempt(final SingleFlight.Call<Result> call, final int attempt) {
+        long delay = RetryPolicy.NO_RETRY;
+        try {
+            delay = authenticate(attempt);
+        } finally {
+            if (delay == RetryPolicy.NO_RETRY) {
+                finish(call);
+            }
+        }
 
-                AuthInstance.getInstance().setServerAuthStatus(AuthInstance.Status.Success);
+        if (delay != RetryPolicy.NO_RETRY && anonymousPhase) {
+            // the full auth retries, the anonymous session is only a head start
+            delay = RetryPolicy.NO_RETRY;
+            finish(call);
+        }
+
+        if (delay != RetryPolicy.NO_RETRY) {
+            EventTrace.record(EventTrace.Event.ServerAuthRetry, delay);
+            AuthMetrics.getInstance().countRetry();
+            // wait on the scheduler, not on a pool thread
+            try {
+                AuthExecutor.getInstance().schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        attempt(call, attempt + 1);
+                    }
+                }, delay, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // shut down while we were waiting, do not leave the callers hanging
+                fail("Server auth cancelled");
+                finish(call);
+            }
+        }
+    }
+
+    private void finish(SingleFlight.Call<Result> call) {
+        serverFlights.complete(call, new Result(sentToken, succeeded, loginAttempt, background), null);
+        AuthInstance.getInstance().checkStatus();
+    }
+
+    // what came back from one endpoint, applied to AuthInstance only if it is the one we use
+    private static class Outcome {
+        String url;
+        int code;
+        ServerPlayer player;
+        List<String> cookies;
+        String retryAfter;
+        IOException error;
+        // lost a hedge to the other endpoint, its cookies were taken back out of the jar
+        boolean discarded;
+
+        boolean shouldFailOver() {
+            return error != null || RetryPolicy.isRetryable(code);
+        }
+    }
+
+    /**
+     * Makes one auth request, failing over down the ranked endpoints on errors. Returns the
+     * delay before the next attempt, or NO_RETRY once the server auth status has been settled.
+     */
+    private long authenticate(final int attempt) {
+        List<EndpointSelector.Endpoint> endpoints = AuthInstance.getInstance().getEndpoints()
+                .ranked(System.currentTimeMillis());
+        if (endpoints.isEmpty()) {
+            Log.e(AuthInstance.TAG, "Server auth circuit open, not sending");
+            fail("Server auth unavailable");
+            return RetryPolicy.NO_RETRY;
+        }
+
+        RequestPojo data = anonymousPhase
+                ? new RequestPojo(null, AuthInstance.getInstance().getServerPlayerId(), "GOOGLE",
+                        null, null)
+                : new RequestPojo(AuthInstance.getInstance().getPlayerId(),
+                        AuthInstance.getInstance().getServerPlayerId(), "GOOGLE",
+                        AuthInstance.getInstance().getPlayerName(),
+                        AuthInstance.getInstance().getOauthToken());
+        sentToken = data.token;
+
+        try {
+            Outcome outcome;
+            int next;
+            long hedgeDelay = AuthInstance.getInstance().getHedgeDelay();
+            if (hedgeDelay > 0 && endpoints.size() > 1) {
+                outcome = sendHedged(endpoints.get(0), endpoints.get(1), data, hedgeDelay);
+                next = 2;
             } else {
-                Log.e(AuthInstance.TAG, "Server sent back error code: " + conn.getResponseCode());
-                AuthInstance.getInstance().setFailureError("Server auth failed");
-                AuthInstance.getInstance().setServerAuthStatus(AuthInstance.Status.Failure);
+                outcome = send(endpoints.get(0), data);
+                next = 1;
             }
+
+            while (outcome.shouldFailOver() && next < endpoints.size()) {
+                EventTrace.record(EventTrace.Event.ServerAuthFailover);
+                outcome = send(endpoints.get(next++), data);
+            }
+
+            return apply(outcome, data, attempt);
         } catch (Exception e) {
             Log.e(AuthInstance.TAG, "Couldn't make a HTTP request", e);
-            AuthInstance.getInstance().setFailureError(e.getLocalizedMessage());
-            AuthInstance.getInstance().setServerAuthStatus(AuthInstance.Status.Failure);
-        } finally {
-            if(conn != null) {
-                conn.disconnect();
+            fail(e.getLocalizedMessage());
+            return RetryPolicy.NO_RETRY;
+        }
+    }
+
+    /**
+     * Sends to the primary, and also to the secondary if the primary has not answered within
+     * the hedge delay. Takes the first answer we do not have to fail over from. Both sends run
+     * on the I/O pool, this thread only waits for them.
+     */
+    private Outcome sendHedged(final EndpointSelector.Endpoint primary,
+                               final EndpointSelector.Endpoint secondary,
+                               final RequestPojo data, long hedgeDelay)
+            throws InterruptedException, ExecutionException {
+        final AtomicReference<Outcome> winner = new AtomicReference<>();
+        CompletionService<Outcome> completion =
+                new ExecutorCompletionService<>(AuthExecutor.getIoExecutor());
+        completion.submit(hedge(primary, data, winner));
+
+        Future<Outcome> first = completion.poll(hedgeDelay, TimeUnit.MILLISECONDS);
+        if (first != null) {
+            Outcome outcome = first.get();
+            return outcome.shouldFailOver() ? send(secondary, data) : outcome;
+        }
+
+        EventTrace.record(EventTrace.Event.ServerAuthHedge);
+        completion.submit(hedge(secondary, data, winner));
+
+        Outcome outcome = completion.take().get();
+        return outcome.shouldFailOver() || outcome.discarded ? completion.take().get() : outcome;
+    }
+
+    // one side of a hedge, the first good answer wins and the other takes its cookies back
+    private Callable<Outcome> hedge(final EndpointSelector.Endpoint endpoint,
+                                    final RequestPojo data,
+                                    final AtomicReference<Outcome> winner) {
+        return new Callable<Outcome>() {
+            @Override
+            public Outcome call() {
+                Outcome outcome = send(endpoint, data);
+                if (!outcome.shouldFailOver() && !winner.compareAndSet(null, outcome)) {
+                    discardCookies(outcome, winner.get());
+                }
+                return outcome;
             }
+        };
+    }
+
+    /**
+     * The cookie transport already stored the losing answer's Set-Cookie headers, which may
+     * have replaced the session the winner opened. Drops the loser's cookies and stores the
+     * winner's again, the winner's were stored before it won so they are not lost.
+     */
+    private static void discardCookies(Outcome loser, Outcome winner) {
+        loser.discarded = true;
+        CookieStore jar = AuthInstance.getInstance().getCookieJar();
+        if (jar == null || loser.cookies == null || loser.cookies.isEmpty()) {
+            return;
         }
 
-        AuthInstance.getInstance().checkStatus();
+        try {
+            removeCookies(jar, new URL(loser.url).toURI(), loser.cookies);
+            if (winner.cookies != null && !winner.cookies.isEmpty()) {
+                new CookieManager(jar, CookiePolicy.ACCEPT_ORIGINAL_SERVER).put(
+                        new URL(winner.url).toURI(),
+                        Collections.singletonMap("Set-Cookie", winner.cookies));
+            }
+            EventTrace.record(EventTrace.Event.ServerAuthHedgeDiscarded);
+        } catch (IOException | URISyntaxException e) {
+            Log.w(AuthInstance.TAG, "Couldn't discard hedged cookies", e);
+        }
+    }
+
+    /**
+     * The anonymous session arrived after server auth opened the real one, and the cookie
+     * transport already stored it over the real session cookie. Drops the anonymous cookies
+     * and stores the session server auth opened under the same cookie again.
+     */
+    private static void discardAnonymousCookies(Outcome outcome) {
+        CookieStore jar = AuthInstance.getInstance().getCookieJar();
+        if (jar == null || outcome.cookies == null || outcome.cookies.isEmpty()) {
+            return;
+        }
+
+        HttpCookie anonymous = sessionCookie(outcome.cookies);
+        String session = AuthInstance.getInstance().getSessionToken();
+        try {
+            URI uri = new URL(outcome.url).toURI();
+            for (HttpCookie removed : removeCookies(jar, uri, outcome.cookies)) {
+                if (anonymous != null && session != null && !session.isEmpty()
+                        && anonymous.getName().equals(removed.getName())) {
+                    // the stored one carries the domain and path the transport gave it
+                    HttpCookie restored = (HttpCookie) removed.clone();
+                    restored.setValue(session);
+                    jar.add(uri, restored);
+                }
+            }
+        } catch (IOException | URISyntaxException e) {
+            Log.w(AuthInstance.TAG, "Couldn't discard anonymous session cookies", e);
+        }
+    }
+
+    // removes the cookies set by the given Set-Cookie headers, returns the ones it removed
+    private static List<HttpCookie> removeCookies(CookieStore jar, URI uri,
+                                                  List<String> headers) {
+        List<String> names = new ArrayList<>();
+        for (String header : headers) {
+            try {
+                for (HttpCookie cookie : HttpCookie.parse(header)) {
+                    names.add(cookie.getName());
+                }
+            } catch (IllegalArgumentException e) {
+                // the transport could not have stored it either
+            }
+        }
+
+        List<HttpCookie> removed = new ArrayList<>();
+        for (HttpCookie stored : jar.get(uri)) {
+            if (names.contains(stored.getName()) && jar.remove(uri, stored)) {
+                removed.add(stored);
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Sends to the endpoint if its circuit still lets us, a skipped endpoint comes back as an
+     * error to fail over from without counting against it. A binary request the host answers
+     * with 415 is sent again as JSON, both round trips are timed and scored as one.
+     */
+    private Outcome send(EndpointSelector.Endpoint endpoint, RequestPojo data) {
+        if (!endpoint.acquire(System.currentTimeMillis())) {
+            Outcome skipped = new Outcome();
+            skipped.url = endpoint.url;
+            skipped.error = new IOException("Circuit open for " + endpoint.url);
+            return skipped;
+        }
+
+        AuthInstance.getInstance().getConnectionWarmer().await(endpoint.url, WARM_WAIT_MS);
+
+        long start = AuthMetrics.now();
+        Outcome outcome;
+        try {
+            boolean binary = AuthInstance.getInstance().isBinaryWireFormat()
+                    && AuthCodec.getInstance().acceptsBinary(endpoint.url);
+            outcome = exchange(endpoint, data, binary);
+            if (binary && outcome.code == UNSUPPORTED_MEDIA_TYPE) {
+                // the host stopped taking binary, go back to JSON for it
+                AuthCodec.getInstance().rememberFormat(endpoint.url, AuthCodec.CONTENT_TYPE);
+                outcome = exchange(endpoint, data, false);
+            }
+        } catch (RuntimeException e) {
+            // a body we could not read, the request still has to settle the circuit breaker
+            endpoint.recordFailure(System.currentTimeMillis());
+            throw e;
+        }
+
+        if (outcome.error == null) {
+            AuthMetrics.getInstance().record(AuthMetrics.Phase.ServerAuth, start);
+        }
+        if (outcome.shouldFailOver()) {
+            endpoint.recordFailure(System.currentTimeMillis());
+        } else {
+            endpoint.recordSuccess(AuthMetrics.now() - start);
+        }
+        return outcome;
+    }
+
+    // one round trip, an I/O error comes back in the outcome
+    private Outcome exchange(final EndpointSelector.Endpoint endpoint, RequestPojo data,
+                             boolean binary) {
+        AuthRequest request = new AuthRequest("POST", endpoint.url)
+                .body(binary ? AuthCodec.BINARY_CONTENT_TYPE : AuthCodec.CONTENT_TYPE,
+                        AuthCodec.getInstance().encodeRequest(data, binary));
+        if (AuthInstance.getInstance().isBinaryWireFormat()) {
+            request.header("Accept", AuthCodec.ACCEPT);
+        }
+
+        try {
+            return AuthInstance.getInstance().getTransport().execute(request,
+                    new AuthTransport.ResponseHandler<Outcome>() {
+                @Override
+                public Outcome handle(AuthResponse response) throws IOException {
+                    Outcome result = new Outcome();
+                    result.url = endpoint.url;
+                    result.code = response.getCode();
+                    result.retryAfter = response.getHeader("Retry-After");
+                    if (result.code == 200) {
+                        String contentType = response.getHeader("Content-Type");
+                        AuthCodec.getInstance().rememberFormat(endpoint.url, contentType);
+                        result.player = AuthCodec.getInstance()
+                                .readServerPlayer(response.getBody(), contentType);
+                        result.cookies = response.getHeaders("Set-Cookie");
+                    }
+                    return result;
+                }
+            });
+        } catch (IOException e) {
+            Log.e(AuthInstance.TAG, "Couldn't make a HTTP request", e);
+            Outcome outcome = new Outcome();
+            outcome.url = endpoint.url;
+            outcome.error = e;
+            return outcome;
+        }
+    }
+
+    private long apply(Outcome outcome, RequestPojo data, int attempt) {
+        if (outcome.error != null) {
+            long delay = retryPolicy.delayFor(attempt);
+            if (delay == RetryPolicy.NO_RETRY) {
+                fail(outcome.error.getLocalizedMessage());
+            }
+            return delay;
+        }
+
+        if(outcome.code == 200 && anonymousPhase) {
+            openedAnonymousSession(outcome);
+            return RetryPolicy.NO_RETRY;
+        }
+
+        if(outcome.code == 200) {
+            ServerPlayer player = outcome.player;
+            AuthInstance.getInstance().setServerPlayerId(player.realPlayerID);
+            AuthInstance.getInstance().setPlayerName(player.playerName);
+            AuthInstance.getInstance().setAnonymous(loginAttempt, player.isAnonymous);
+
+            HttpCookie sessionCookie = sessionCookie(outcome.cookies);
+            if(sessionCookie != null) {
+                AuthInstance.getInstance().setSessionToken(loginAttempt, sessionCookie.getValue());
+                EventTrace.record(EventTrace.Event.SessionCookie);
+                SessionStore.getInstance(UnityPlayer.currentActivity).put(sessionCookie,
+                        data.playerId, player.realPlayerID, player.playerName, player.isAnonymous);
+                TokenRefresher.getInstance().scheduleSessionRefresh();
+            }
+
+            succeeded = true;
+            AuthInstance.getInstance().setServerAuthStatus(loginAttempt,
+                    AuthInstance.Status.Success);
+            return RetryPolicy.NO_RETRY;
+        }
+
+        Log.e(AuthInstance.TAG, "Server sent back error code: " + outcome.code);
+        if (RetryPolicy.isRetryable(outcome.code)) {
+            long delay = retryPolicy.delayFor(attempt, outcome.code, outcome.retryAfter);
+            if (delay != RetryPolicy.NO_RETRY) {
+                return delay;
+            }
+        } else if (outcome.code == HttpURLConnection.HTTP_UNAUTHORIZED && data.token != null) {
+            // server rejected the token, make sure it is not served from cache again
+            TokenCache.getInstance(UnityPlayer.currentActivity).invalidate(
+                    AuthInstance.getInstance().getAccountName(),
+                    AuthInstance.getInstance().getScope(),
+                    data.token);
+        }
+
+        fail("Server auth failed");
+        return RetryPolicy.NO_RETRY;
+    }
+
+    private void openedAnonymousSession(Outcome outcome) {
+        HttpCookie sessionCookie = sessionCookie(outcome.cookies);
+        if (!AuthInstance.getInstance().setAnonymousSession(loginAttempt,
+                sessionCookie != null ? sessionCookie.getValue() : null)) {
+            Log.w(AuthInstance.TAG, "Anonymous session arrived after server auth, ignoring it");
+            discardAnonymousCookies(outcome);
+            return;
+        }
+
+        String serverPlayerId = outcome.player.realPlayerID;
+        AuthInstance.getInstance().setServerPlayerId(serverPlayerId);
+
+        EventTrace.record(EventTrace.Event.AnonymousSession);
+        UnityPlayer.UnitySendMessage("AuthGameObject", "SessionReady",
+                serverPlayerId != null ? serverPlayerId : "");
+    }
+
+    // every cookie is already in the cookie jar, the one named as the session is resumed
+    private static HttpCookie sessionCookie(List<String> cookies) {
+        String name = AuthInstance.getInstance().getSessionCookieName();
+        HttpCookie sessionCookie = null;
+        for(String cookie : cookies) {
+            try {
+                for (HttpCookie httpCookie : HttpCookie.parse(cookie)) {
+                    if (name == null || name.equals(httpCookie.getName())) {
+                        sessionCookie = httpCookie;
+                    }
+                }
+            } catch (IllegalArgumentException e) {
+                Log.w(AuthInstance.TAG, "Ignoring malformed Set-Cookie header");
+            }
+        }
+        return sessionCookie;
+    }
+
+    private void fail(String error) {
+        if (anonymousPhase) {
+            Log.w(AuthInstance.TAG, "Anonymous session failed: " + error);
+            return;
+        }
+        if (background) {
+            Log.w(AuthInstance.TAG, "Session refresh failed: " + error);
+            return;
+        }
+
+        AuthMetrics.getInstance().countFailure();
+        AuthInstance.getInstance().setFailureError(error);
+        AuthInstance.getInstance().setServerAuthStatus(loginAttempt, AuthInstance.Status.Failure);
+    }
+
+    /**
+     * Restores a stored session for the current identity instead of running the full auth,
+     * depending on the resume mode. Returns false if a full auth is needed.
+     */
+    private boolean resumeSession() {
+        AuthInstance auth = AuthInstance.getInstance();
+        if (auth.getSessionResumeMode() == SessionStore.ResumeMode.None) {
+            return false;
+        }
+
+        SessionStore store = SessionStore.getInstance(UnityPlayer.currentActivity);
+        SessionStore.Session session = store.get();
+        if (session == null || !isSameIdentity(session)) {
+            return false;
+        }
+
+        if (auth.getSessionResumeMode() == SessionStore.ResumeMode.Validate
+                && !validateSession(session)) {
+            EventTrace.record(EventTrace.Event.SessionRejected);
+            store.clear();
+            return false;
+        }
+
+        EventTrace.record(EventTrace.Event.SessionResumed);
+        auth.setServerPlayerId(session.serverPlayerId);
+        auth.setPlayerName(session.playerName);
+        auth.setAnonymous(loginAttempt, session.anonymous);
+        auth.setSessionToken(loginAttempt, session.cookieValue);
+        return true;
+    }
+
+    private boolean isSameIdentity(SessionStore.Session session) {
+        AuthInstance auth = AuthInstance.getInstance();
+        String playerId = auth.getPlayerId();
+        if (playerId == null ? session.playerId != null : !playerId.equals(session.playerId)) {
+            return false;
+        }
+
+        // a fresh google token should upgrade an anonymous session, not resume it
+        if (session.anonymous && auth.getOauthToken() != null) {
+            return false;
+        }
+
+        String serverPlayerId = auth.getServerPlayerId();
+        return serverPlayerId == null || serverPlayerId.isEmpty()
+                || serverPlayerId.equals(session.serverPlayerId);
+    }
+
+    private boolean validateSession(SessionStore.Session session) {
+        String validationUrl = AuthInstance.getInstance().getSessionValidationUrl();
+        if (validationUrl == null) {
+            return true;
+        }
+
+        AuthRequest request = new AuthRequest("GET", validationUrl)
+                .header("Cookie", session.toCookieHeader());
+        try {
+            return AuthInstance.getInstance().getTransport().execute(request,
+                    new AuthTransport.ResponseHandler<Boolean>() {
+                @Override
+                public Boolean handle(AuthResponse response) {
+                    return response.getCode() == 200;
+                }
+            });
+        } catch (IOException e) {
+            Log.e(AuthInstance.TAG, "Couldn't validate session", e);
+            return false;
+        }
     }
 }
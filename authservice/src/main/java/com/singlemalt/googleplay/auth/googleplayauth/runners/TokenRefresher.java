@@ -0,0 +1,201 @@
+package com.singlemalt.googleplay.auth.googleplayauth.runners;
+
+import android.app.Activity;
+import android.util.Log;
+
+import com.singlemalt.googleplay.auth.googleplayauth.AuthInstance;
+import com.singlemalt.googleplay.auth.googleplayauth.cache.SessionStore;
+import com.singlemalt.googleplay.auth.googleplayauth.cache.TokenCache;
+import com.singlemalt.googleplay.auth.googleplayauth.concurrent.AuthExecutor;
+import com.singlemalt.googleplay.auth.googleplayauth.metrics.EventTrace;
+import com.singlemalt.googleplay.auth.googleplayauth.net.RetryPolicy;
+import com.singlemalt.googleplay.auth.googleplayauth.tasks.GetOAuthTokenTask;
+import com.unity3d.player.UnityPlayer;
+
+import java.io.IOException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Refreshes the OAuth token and the server session cookie in the background ahead of expiry,
+ * so they are still valid in memory when the game needs them. Refreshes wait while a login is
+ * in progress or the game is paused, and back off on failure.
+ */
+public class TokenRefresher {
+    // refresh this long before expiry
+    private static final long LEAD_MS = TimeUnit.MINUTES.toMillis(5);
+    // how long to wait when a login is in progress
+    private static final long BUSY_DELAY_MS = TimeUnit.SECONDS.toMillis(30);
+
+    private static final TokenRefresher ourInstance = new TokenRefresher();
+
+    private final RetryPolicy backoff = new RetryPolicy(8, TimeUnit.SECONDS.toMillis(30),
+            TimeUnit.MINUTES.toMillis(15));
+
+    private ScheduledFuture<?> tokenRefresh;
+    private ScheduledFuture<?> sessionRefresh;
+    private int tokenFailures = 0;
+    private int sessionFailures = 0;
+    private boolean paused = false;
+
+    public static TokenRefresher getInstance() {
+        return ourInstance;
+    }
+
+    private TokenRefresher() { }
+
+    /**
+     * Schedules a refresh of the current account's token ahead of its cached expiry.
+     */
+    public synchronized void scheduleTokenRefresh() {
+        AuthInstance auth = AuthInstance.getInstance();
+        TokenCache.CachedToken entry = TokenCache.getInstance(UnityPlayer.currentActivity)
+                .getEntry(auth.getAccountName(), auth.getScope());
+        if (entry == null) {
+            return;
+        }
+
+        scheduleToken(entry.expiresAt - LEAD_MS - System.currentTimeMillis());
+    }
+
+    /**
+     * Schedules a refresh of the stored server session ahead of its expiry.
+     */
+    public synchronized void scheduleSessionRefresh() {
+        SessionStore.Session session = SessionStore.getInstance(UnityPlayer.currentActivity).get();
+        if (session == null) {
+            return;
+        }
+
+        scheduleSession(session.expiresAt - LEAD_MS - System.currentTimeMillis());
+    }
+
+    public synchronized void pause() {
+        paused = true;
+        cancel();
+    }
+
+    public synchronized void resume() {
+        paused = false;
+        scheduleTokenRefresh();
+        scheduleSessionRefresh();
+    }
+
+    public synchronized void cancel() {
+        if (tokenRefresh != null) {
+            tokenRefresh.cancel(false);
+            tokenRefresh = null;
+        }
+        if (sessionRefresh != null) {
+            sessionRefresh.cancel(false);
+            sessionRefresh = null;
+        }
+    }
+
+    private void scheduleToken(long delay) {
+        if (paused) {
+            return;
+        }
+        if (tokenRefresh != null) {
+            tokenRefresh.cancel(false);
+        }
+        tokenRefresh = AuthExecutor.getInstance().schedule(new Runnable() {
+            @Override
+            public void run() {
+                refreshToken();
+            }
+        }, Math.max(0, delay), TimeUnit.MILLISECONDS);
+    }
+
+    private void scheduleSession(long delay) {
+        if (paused) {
+            return;
+        }
+        if (sessionRefresh != null) {
+            sessionRefresh.cancel(false);
+        }
+        sessionRefresh = AuthExecutor.getInstance().schedule(new Runnable() {
+            @Override
+            public void run() {
+                refreshSession();
+            }
+        }, Math.max(0, delay), TimeUnit.MILLISECONDS);
+    }
+
+    private void refreshToken() {
+        AuthInstance auth = AuthInstance.getInstance();
+        if (isBusy()) {
+            synchronized (this) {
+                scheduleToken(BUSY_DELAY_MS);
+            }
+            return;
+        }
+
+        EventTrace.record(EventTrace.Event.TokenRefresh);
+        Activity activity = UnityPlayer.currentActivity;
+        String account = auth.getAccountName();
+        String scope = auth.getScope();
+
+        String token = null;
+        try {
+            // clear the old token so Play Services hands out a new one
+            TokenCache.getInstance(activity).invalidate(account, scope, null);
+            token = new GetOAuthTokenTask(activity, account, scope).setSilent(true).fetchToken();
+        } catch (IOException | RuntimeException e) {
+            Log.w(AuthInstance.TAG, "oauth token refresh failed", e);
+        }
+
+        synchronized (this) {
+            if (token != null) {
+                tokenFailures = 0;
+                auth.updateOauthToken(token);
+                scheduleTokenRefresh();
+            } else {
+                long delay = backoff.delayFor(++tokenFailures);
+                if (delay != RetryPolicy.NO_RETRY) {
+                    scheduleToken(delay);
+                }
+            }
+        }
+    }
+
+    private void refreshSession() {
+        if (isBusy()) {
+            synchronized (this) {
+                scheduleSession(BUSY_DELAY_MS);
+            }
+            return;
+        }
+
+        EventTrace.record(EventTrace.Event.SessionRefresh);
+        SessionStore store = SessionStore.getInstance(UnityPlayer.currentActivity);
+        SessionStore.Session before = store.get();
+
+        boolean refreshed = false;
+        try {
+            refreshed = ServerAuthRunner.refreshSession();
+        } catch (IOException | RuntimeException e) {
+            Log.w(AuthInstance.TAG, "session refresh failed", e);
+        }
+
+        // a success without a new cookie would schedule the next refresh right away
+        SessionStore.Session after = store.get();
+        synchronized (this) {
+            if (refreshed && after != null
+                    && (before == null || after.expiresAt > before.expiresAt)) {
+                sessionFailures = 0;
+                scheduleSessionRefresh();
+            } else {
+                long delay = backoff.delayFor(++sessionFailures);
+                if (delay != RetryPolicy.NO_RETRY) {
+                    scheduleSession(delay);
+                }
+            }
+        }
+    }
+
+    // only refresh between logins, never race the foreground flow
+    private static boolean isBusy() {
+        return AuthInstance.getInstance().getState().delivered == null;
+    }
+}
@@ -1,55 +1,53 @@
 package com.singlemalt.googleplay.auth.googleplayauth.tasks;
 
+import android.content.Context;
 import android.os.AsyncTask;
-import android.util.Log;
 
-import com.google.android.gms.auth.GoogleAuthException;
-import com.google.android.gms.auth.GoogleAuthUtil;
 import com.google.android.gms.common.api.GoogleApiClient;
 import com.google.android.gms.games.Games;
 import com.singlemalt.googleplay.auth.googleplayauth.AuthInstance;
-import com.singlemalt.googleplay.auth.googleplayauth.AuthServiceActivity;
-
-import java.io.IOException;
+import com.singlemalt.googleplay.auth.googleplayauth.SignInCallbacks;
+import com.singlemalt.googleplay.auth.googleplayauth.cache.TokenCache;
+import com.singlemalt.googleplay.auth.googleplayauth.metrics.AuthMetrics;
+import com.singlemalt.googleplay.auth.googleplayauth.metrics.EventTrace;
 
 /**
  * Created by singlemalt on 4/12/2016.
  */
 public class AuthTask extends AsyncTask<String, Void, String> {
-    private AuthServiceActivity authServiceActivity;
+    private Context context;
 
-    public AuthTask(AuthServiceActivity authServiceActivity) {
-        this.authServiceActivity = authServiceActivity;
+    public AuthTask(Context context) {
+        this.context = context.getApplicationContext();
     }
 
     @Override
     protected String doInBackground(String... params) {
         if(AuthInstance.getInstance().getGoogleApiClient() == null) {
-            Log.d(AuthInstance.TAG, "AuthRunner starting...");
+            EventTrace.record(EventTrace.Event.ClientCreated);
             AuthInstance.getInstance().setGoogleApiClient(
-                    new GoogleApiClient.Builder(authServiceActivity.getApplicationContext())
+                    new GoogleApiClient.Builder(context)
                     .addApi(Games.API).addScope(Games.SCOPE_GAMES)
-                    .addConnectionCallbacks(authServiceActivity)
-                    .addOnConnectionFailedListener(authServiceActivity)
+                    .addConnectionCallbacks(SignInCallbacks.getInstance())
+                    .addOnConnectionFailedListener(SignInCallbacks.getInstance())
                     .build());
         }
 
         if(AuthInstance.getInstance().getGoogleApiClient().isConnected()) {
-            Log.d(AuthInstance.TAG, "googleApiClient isConnected, reconnecting");
             AuthInstance.getInstance().getGoogleApiClient().disconnect();
 
-            try {
-                GoogleAuthUtil.clearToken(authServiceActivity.getApplicationContext(),
-                        AuthInstance.getInstance().getOauthToken());
-            } catch (GoogleAuthException | IOException e) {
-                Log.e(AuthInstance.TAG, "Could not clear token: ", e);
-            }
-            Log.d(AuthInstance.TAG, "AuthRunner re-connecting...");
+            TokenCache.getInstance(context).invalidate(
+                    AuthInstance.getInstance().getAccountName(),
+                    AuthInstance.getInstance().getScope(),
+                    AuthInstance.getInstance().getOauthToken());
+            EventTrace.record(EventTrace.Event.Reconnect);
+            AuthMetrics.getInstance().markConnectStart();
             AuthInstance.getInstance().getGoogleApiClient().connect();
         } else if(AuthInstance.getInstance().getGoogleApiClient().isConnecting()) {
-            Log.d(AuthInstance.TAG, "googleApiClient isConnecting, waiting...");
+            EventTrace.record(EventTrace.Event.ConnectWaiting);
         } else {
-            Log.d(AuthInstance.TAG, "AuthRunner connecting...");
+            EventTrace.record(EventTrace.Event.Connect);
+            AuthMetrics.getInstance().markConnectStart();
             AuthInstance.getInstance().getGoogleApiClient().connect();
         }
 
@@ -3,6 +3,7 @@ package com.singlemalt.googleplay.auth.googleplayauth.tasks;
 import android.accounts.Account;
 import android.app.Activity;
 import android.app.Dialog;
+import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.os.AsyncTask;
@@ -15,30 +16,50 @@ import com.google.android.gms.auth.UserRecoverableAuthException;
 import com.google.android.gms.common.GoogleApiAvailability;
 import com.singlemalt.googleplay.auth.googleplayauth.AuthInstance;
 import com.singlemalt.googleplay.auth.googleplayauth.AuthServiceActivity;
+import com.singlemalt.googleplay.auth.googleplayauth.cache.TokenCache;
+import com.singlemalt.googleplay.auth.googleplayauth.concurrent.SingleFlight;
+import com.singlemalt.googleplay.auth.googleplayauth.lifecycle.WeakHandle;
+import com.singlemalt.googleplay.auth.googleplayauth.metrics.AuthMetrics;
+import com.singlemalt.googleplay.auth.googleplayauth.metrics.EventTrace;
+import com.unity3d.player.UnityPlayer;
 
 import java.io.IOException;
+import java.util.concurrent.Callable;
 
 /**
  * Created by singlemalt on 3/29/16.
  */
 public class GetOAuthTokenTask extends AsyncTask<String, Void, String> {
-    private Activity activity;
+    private static final SingleFlight<String> tokenFlights = new SingleFlight<>();
+
+    private final Context context;
+    // only needed to ask the user, never keeps a finished activity alive
+    private final WeakHandle<Activity> activity;
     private String scope;
     private String email;
+    private boolean silent = false;
+    // login attempt the token is for
+    private final int attempt;
+
+    // a silent fetch ran into something only the user can resolve
+    private static class RecoverableException extends IOException {
+    }
 
     public GetOAuthTokenTask(Activity activity, String name, String scope) {
         this.scope = scope;
         this.email = name;
-        this.activity = activity;
+        this.context = activity.getApplicationContext();
+        this.activity = new WeakHandle<>(activity);
+        this.attempt = AuthInstance.getInstance().getState().attempt;
     }
 
-    final DialogInterface.OnCancelListener listener = new DialogInterface.OnCancelListener() {
-        @Override
-        public void onCancel(DialogInterface dialogInterface) {
-            Log.w(AuthInstance.TAG, "OnCancelListener cancelled");
-            AuthInstance.getInstance().onCancel(activity);
-        }
-    };
+    /**
+     * A silent task never shows UI, it returns null where it would have asked the user.
+     */
+    public GetOAuthTokenTask setSilent(boolean silent) {
+        this.silent = silent;
+        return this;
+    }
 
     /**
      * Executes the asynchronous job. This runs when you call execute()
@@ -47,47 +68,103 @@ public class GetOAuthTokenTask extends AsyncTask<String, Void, String> {
     @Override
     protected String doInBackground(String... params) {
         try {
-            Log.d(AuthInstance.TAG, "doInBackground getting token");
             String token = fetchToken();
             if (token != null) {
-                Log.d(AuthInstance.TAG, "doInBackground setting token");
-                AuthInstance.getInstance().setOauthToken(token);
+                EventTrace.record(EventTrace.Event.TokenSet);
+                AuthInstance.getInstance().setOauthToken(attempt, token);
             }
         } catch (IOException e) {
             Log.e(AuthInstance.TAG, "doInBackground exception", e);
-            AuthInstance.getInstance().setOauthToken(null);
+            AuthInstance.getInstance().setOauthToken(attempt, null);
         }
         return null;
     }
 
     /**
-     * Gets an authentication token from Google and handles any
-     * GoogleAuthException that may occur.
+     * Gets an authentication token, from the token cache if a valid one is held, otherwise
+     * from Google, and handles any GoogleAuthException that may occur.
      */
     public String fetchToken() throws IOException {
+        TokenCache cache = TokenCache.getInstance(context);
+        String cached = cache.get(email, scope);
+        if (cached != null) {
+            EventTrace.record(EventTrace.Event.TokenCacheHit);
+            AuthMetrics.getInstance().countTokenCacheHit();
+            return cached;
+        }
+
+        // concurrent fetches of the same token share one Play Services round trip
+        try {
+            return tokenFlights.execute(SingleFlight.key("token", email, scope),
+                    new Callable<String>() {
+                @Override
+                public String call() throws IOException {
+                    return requestToken();
+                }
+            });
+        } catch (RecoverableException e) {
+            if (silent) {
+                return null;
+            }
+            // we attached to a silent prefetch, ask the user ourselves, but only one of the
+            // callers that attached to it shows the consent UI
+            return tokenFlights.execute(SingleFlight.key("token-ui", email, scope),
+                    new Callable<String>() {
+                @Override
+                public String call() throws IOException {
+                    return requestToken();
+                }
+            });
+        }
+    }
+
+    private String requestToken() throws IOException {
+        TokenCache cache = TokenCache.getInstance(context);
         try {
-            Log.d(AuthInstance.TAG, "fetchToken getting token");
+            EventTrace.record(EventTrace.Event.TokenFetch);
 
             Account account = new Account(email, GoogleAuthUtil.GOOGLE_ACCOUNT_TYPE);
-            return GoogleAuthUtil.getToken(activity.getApplicationContext(), account, scope);
+            long start = AuthMetrics.now();
+            String token = GoogleAuthUtil.getToken(context, account, scope);
+            AuthMetrics.getInstance().record(AuthMetrics.Phase.TokenFetch, start);
+            cache.put(email, scope, token);
+            return token;
 
         } catch (final UserRecoverableAuthException e) {
-            Log.d(AuthInstance.TAG, "fetchToken exception", e);
+            EventTrace.record(EventTrace.Event.TokenRecoverable);
+            if (silent) {
+                throw new RecoverableException();
+            }
 
-            activity.runOnUiThread(new Runnable() {
+            Activity current = activity.get();
+            final Activity host = current != null ? current : UnityPlayer.currentActivity;
+            if (host == null) {
+                // nothing on screen to ask the user from, report it like any other failure
+                Log.w(AuthInstance.TAG, "No activity to resolve the token request");
+                throw new IOException("No activity to resolve the token request", e);
+            }
+            host.runOnUiThread(new Runnable() {
                 @Override
                 public void run() {
                     if (e instanceof GooglePlayServicesAvailabilityException) {
                         int statusCode = ((GooglePlayServicesAvailabilityException) e)
                                 .getConnectionStatusCode();
 
+                        DialogInterface.OnCancelListener listener =
+                                new DialogInterface.OnCancelListener() {
+                            @Override
+                            public void onCancel(DialogInterface dialogInterface) {
+                                Log.w(AuthInstance.TAG, "OnCancelListener cancelled");
+                                AuthInstance.getInstance().onCancel(host);
+                            }
+                        };
                         Dialog dialog = GoogleApiAvailability.getInstance()
-                                .getErrorDialog(activity, statusCode, AuthServiceActivity.REQUEST_RESOLVE_ERROR, listener);
+                                .getErrorDialog(host, statusCode, AuthServiceActivity.REQUEST_RESOLVE_ERROR, listener);
 
                         dialog.show();
                     } else {
                         Intent intent = e.getIntent();
-                        activity.startActivityForResult(intent, AuthServiceActivity.REQUEST_RESOLVE_ERROR);
+                        host.startActivityForResult(intent, AuthServiceActivity.REQUEST_RESOLVE_ERROR);
                     }
                 }
             });
@@ -0,0 +1,158 @@
+package com.singlemalt.googleplay.auth.googleplayauth.cache;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.HttpCookie;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Cookie matching, expiry and persistence of the cookie jar.
+ */
+public class CookieJarTest {
+    private static final URI API = URI.create("https://api.example.com/auth");
+    private static final URI EU = URI.create("https://eu.example.com/auth");
+    private static final URI OTHER = URI.create("https://example.org/auth");
+
+    private MemoryPreferences prefs;
+
+    @Before
+    public void setUp() throws Exception {
+        prefs = new MemoryPreferences();
+    }
+
+    @Test
+    public void get_hostOnlyCookieStaysOnItsHost() throws Exception {
+        CookieJar jar = new CookieJar(prefs);
+        jar.add(API, cookie("session", "abc", null, -1));
+
+        assertNames(jar.get(API), "session");
+        assertNames(jar.get(EU));
+        assertNames(jar.get(OTHER));
+    }
+
+    @Test
+    public void get_domainCookieMatchesSubdomains() throws Exception {
+        CookieJar jar = new CookieJar(prefs);
+        jar.add(API, cookie("region", "eu", ".example.com", -1));
+
+        assertNames(jar.get(API), "region");
+        assertNames(jar.get(EU), "region");
+        assertNames(jar.get(OTHER));
+    }
+
+    @Test
+    public void persistentCookie_survivesReload() throws Exception {
+        new CookieJar(prefs).add(API, cookie("session", "abc", null, 3600));
+
+        List<HttpCookie> reloaded = new CookieJar(prefs).get(API);
+
+        assertNames(reloaded, "session");
+        assertEquals("abc", reloaded.get(0).getValue());
+    }
+
+    @Test
+    public void sessionCookie_isNotPersisted() throws Exception {
+        new CookieJar(prefs).add(API, cookie("session", "abc", null, -1));
+
+        assertNull(prefs.getString("cookies"));
+        assertNames(new CookieJar(prefs).get(API));
+    }
+
+    @Test
+    public void load_dropsExpiredCookies() throws Exception {
+        long now = System.currentTimeMillis();
+        prefs.putString("cookies", "["
+                + stored("old", now - 1000) + ","
+                + stored("fresh", now + 60000) + "]");
+
+        assertNames(new CookieJar(prefs).get(API), "fresh");
+    }
+
+    @Test
+    public void load_dropsUnreadableStore() throws Exception {
+        prefs.putString("cookies", "not json");
+
+        assertNames(new CookieJar(prefs).get(API));
+        assertNull(prefs.getString("cookies"));
+    }
+
+    @Test
+    public void zeroMaxAge_deletesPersistedCookie() throws Exception {
+        CookieJar jar = new CookieJar(prefs);
+        jar.add(API, cookie("session", "abc", null, 3600));
+        jar.add(API, cookie("session", "", null, 0));
+
+        assertNames(jar.get(API));
+        assertNames(new CookieJar(prefs).get(API));
+    }
+
+    @Test
+    public void remove_dropsPersistedCookie() throws Exception {
+        CookieJar jar = new CookieJar(prefs);
+        jar.add(API, cookie("session", "abc", null, 3600));
+        HttpCookie stored = jar.get(API).get(0);
+
+        assertTrue(jar.remove(API, stored));
+        assertNames(new CookieJar(prefs).get(API));
+    }
+
+    @Test
+    public void removeAll_clearsStore() throws Exception {
+        CookieJar jar = new CookieJar(prefs);
+        jar.add(API, cookie("session", "abc", null, 3600));
+        jar.removeAll();
+
+        assertNames(jar.get(API));
+        assertNull(prefs.getString("cookies"));
+    }
+
+    private static HttpCookie cookie(String name, String value, String domain, long maxAge) {
+        HttpCookie cookie = new HttpCookie(name, value);
+        cookie.setDomain(domain);
+        cookie.setPath("/");
+        cookie.setMaxAge(maxAge);
+        return cookie;
+    }
+
+    private static String stored(String name, long expiresAt) {
+        return "{\"uri\":\"" + API + "\",\"name\":\"" + name + "\",\"value\":\"v\","
+                + "\"path\":\"/\",\"expiresAt\":" + expiresAt + "}";
+    }
+
+    private static void assertNames(List<HttpCookie> cookies, String... names) {
+        assertEquals(names.length, cookies.size());
+        for (int i = 0; i < names.length; i++) {
+            assertEquals(names[i], cookies.get(i).getName());
+        }
+    }
+
+    // plain map instead of the encrypted preferences file
+    private static class MemoryPreferences extends SecurePreferences {
+        private final Map<String, String> values = new HashMap<>();
+
+        @Override
+        public String getString(String name) {
+            return values.get(name);
+        }
+
+        @Override
+        public void putString(String name, String value) {
+            if (value == null) {
+                remove(name);
+            } else {
+                values.put(name, value);
+            }
+        }
+
+        @Override
+        public void remove(String name) {
+            values.remove(name);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.singlemalt.googleplay.auth.googleplayauth.codec;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.*;
+
+/**
+ * JSON side of the server auth exchange.
+ */
+public class AuthCodecTest {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    @Test
+    public void toJson_leavesOutNullFields() throws Exception {
+        String json = AuthCodec.getInstance().toJson(
+                new RequestPojo("p1", null, "GOOGLE", "Player", null));
+
+        assertEquals("{\"playerId\":\"p1\",\"network\":\"GOOGLE\",\"playerName\":\"Player\"}", json);
+    }
+
+    @Test
+    public void encodeRequest_isUtf8() throws Exception {
+        byte[] body = AuthCodec.getInstance().encodeRequest(
+                new RequestPojo(null, null, null, "J\u00f6rg \u2603", null), false);
+
+        assertEquals("{\"playerName\":\"J\u00f6rg \u2603\"}", new String(body, UTF8));
+    }
+
+    @Test
+    public void readServerPlayer_readsKnownFields() throws Exception {
+        ServerPlayer player = AuthCodec.getInstance().readServerPlayer(stream(
+                "{\"realPlayerID\":\"s1\",\"playerName\":\"J\u00f6rg\",\"isAnonymous\":true}"));
+
+        assertEquals("s1", player.realPlayerID);
+        assertEquals("J\u00f6rg", player.playerName);
+        assertTrue(player.isAnonymous);
+    }
+
+    @Test
+    public void readServerPlayer_skipsUnknownAndNullFields() throws Exception {
+        ServerPlayer player = AuthCodec.getInstance().readServerPlayer(stream(
+                "{\"extra\":{\"nested\":[1,2]},\"realPlayerID\":\"s1\",\"playerName\":null}"));
+
+        assertEquals("s1", player.realPlayerID);
+        assertNull(player.playerName);
+        assertFalse(player.isAnonymous);
+    }
+
+    @Test
+    public void readServerPlayer_jsonContentTypeReadsJson() throws Exception {
+        ServerPlayer player = AuthCodec.getInstance().readServerPlayer(
+                stream("{\"realPlayerID\":\"s1\"}"), AuthCodec.CONTENT_TYPE);
+
+        assertEquals("s1", player.realPlayerID);
+    }
+
+    @Test
+    public void isBinary_comparesMediaTypeExactly() throws Exception {
+        assertTrue(AuthCodec.isBinary(AuthCodec.BINARY_CONTENT_TYPE));
+        assertTrue(AuthCodec.isBinary("Application/VND.Singlemalt.Auth ; v=1"));
+        assertFalse(AuthCodec.isBinary(AuthCodec.BINARY_CONTENT_TYPE + "+json"));
+        assertFalse(AuthCodec.isBinary(AuthCodec.CONTENT_TYPE));
+        assertFalse(AuthCodec.isBinary(null));
+    }
+
+    @Test
+    public void roundTrip_requestFieldsSurvive() throws Exception {
+        RequestPojo request = new RequestPojo("p1", "s1", "GOOGLE", "Player", "token");
+        ServerPlayer echoed = AuthCodec.getInstance().readServerPlayer(stream(
+                new String(AuthCodec.getInstance().encodeRequest(request, false), UTF8)
+                        .replace("serverPlayerId", "realPlayerID")));
+
+        assertEquals("s1", echoed.realPlayerID);
+        assertEquals("Player", echoed.playerName);
+    }
+
+    private static InputStream stream(String body) {
+        return new ByteArrayInputStream(body.getBytes(UTF8));
+    }
+}
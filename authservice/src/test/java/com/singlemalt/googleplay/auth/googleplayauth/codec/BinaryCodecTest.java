@@ -0,0 +1,176 @@
+package com.singlemalt.googleplay.auth.googleplayauth.codec;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.*;
+
+/**
+ * Framing of the binary auth format, including corrupt and truncated bodies.
+ */
+public class BinaryCodecTest {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    @Test
+    public void encodeRequest_leavesOutNullFields() throws Exception {
+        byte[] body = BinaryCodec.encodeRequest(new RequestPojo("p1", null, "G", null, null));
+
+        assertArrayEquals(new byte[] {
+                BinaryCodec.VERSION,
+                BinaryCodec.TAG_PLAYER_ID, 2, 'p', '1',
+                BinaryCodec.TAG_NETWORK, 1, 'G'
+        }, body);
+    }
+
+    @Test
+    public void encodeRequest_longFieldUsesMultiByteLength() throws Exception {
+        byte[] body = BinaryCodec.encodeRequest(
+                new RequestPojo(null, null, null, repeat('x', 200), null));
+
+        assertEquals(BinaryCodec.TAG_PLAYER_NAME, body[1]);
+        assertEquals((byte) 0xC8, body[2]);
+        assertEquals(0x01, body[3]);
+        assertEquals(4 + 200, body.length);
+    }
+
+    @Test
+    public void roundTrip_fieldsSurvive() throws Exception {
+        ServerPlayer player = read(new Body()
+                .string(BinaryCodec.TAG_REAL_PLAYER_ID, "s1")
+                .string(BinaryCodec.TAG_RESPONSE_PLAYER_NAME, "J\u00f6rg \u2603")
+                .flag(BinaryCodec.TAG_IS_ANONYMOUS, true)
+                .bytes());
+
+        assertEquals("s1", player.realPlayerID);
+        assertEquals("J\u00f6rg \u2603", player.playerName);
+        assertTrue(player.isAnonymous);
+    }
+
+    @Test
+    public void roundTrip_requestFramingReadsBack() throws Exception {
+        // request and response share the framing, tags 1 and 2 are the two leading strings
+        ServerPlayer echoed = read(BinaryCodec.encodeRequest(
+                new RequestPojo("p1", "s1", null, null, null)));
+
+        assertEquals("p1", echoed.realPlayerID);
+        assertEquals("s1", echoed.playerName);
+    }
+
+    @Test
+    public void readServerPlayer_skipsUnknownTags() throws Exception {
+        ServerPlayer player = read(new Body()
+                .string(99, "from a newer server")
+                .string(BinaryCodec.TAG_REAL_PLAYER_ID, "s1")
+                .bytes());
+
+        assertEquals("s1", player.realPlayerID);
+        assertNull(player.playerName);
+        assertFalse(player.isAnonymous);
+    }
+
+    @Test(expected = EOFException.class)
+    public void readServerPlayer_truncatedValue() throws Exception {
+        byte[] body = new Body().string(BinaryCodec.TAG_REAL_PLAYER_ID, "s1234").bytes();
+        byte[] truncated = new byte[body.length - 2];
+        System.arraycopy(body, 0, truncated, 0, truncated.length);
+
+        read(truncated);
+    }
+
+    @Test(expected = EOFException.class)
+    public void readServerPlayer_truncatedLength() throws Exception {
+        read(new byte[] { BinaryCodec.VERSION, BinaryCodec.TAG_REAL_PLAYER_ID, (byte) 0x80 });
+    }
+
+    @Test
+    public void readServerPlayer_oversizedLengthIsRejected() throws Exception {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        body.write(BinaryCodec.VERSION);
+        body.write(BinaryCodec.TAG_REAL_PLAYER_ID);
+        // 64 KiB + 1 as a varint, with no bytes behind it
+        body.write(0x81);
+        body.write(0x80);
+        body.write(0x04);
+
+        assertRejected(body.toByteArray());
+    }
+
+    @Test
+    public void readServerPlayer_negativeLengthIsRejected() throws Exception {
+        assertRejected(new byte[] {
+                BinaryCodec.VERSION, BinaryCodec.TAG_REAL_PLAYER_ID,
+                (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F
+        });
+    }
+
+    @Test
+    public void readServerPlayer_overlongVarintIsRejected() throws Exception {
+        assertRejected(new byte[] {
+                BinaryCodec.VERSION, BinaryCodec.TAG_REAL_PLAYER_ID,
+                (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x01
+        });
+    }
+
+    @Test
+    public void readServerPlayer_unknownVersionIsRejected() throws Exception {
+        assertRejected(new byte[] { 2, BinaryCodec.TAG_REAL_PLAYER_ID, 1, 'x' });
+        assertRejected(new byte[0]);
+    }
+
+    private static ServerPlayer read(byte[] body) throws IOException {
+        return BinaryCodec.readServerPlayer(new ByteArrayInputStream(body));
+    }
+
+    // corrupt bodies fail with an IOException, not a truncation or a runtime error
+    private static void assertRejected(byte[] body) {
+        try {
+            read(body);
+            fail("expected the body to be rejected");
+        } catch (EOFException e) {
+            fail("rejected as truncated: " + e.getMessage());
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    private static String repeat(char c, int count) {
+        StringBuilder builder = new StringBuilder(count);
+        for (int i = 0; i < count; i++) {
+            builder.append(c);
+        }
+        return builder.toString();
+    }
+
+    // builds response bodies the way the server writes them
+    private static class Body {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        Body() {
+            out.write(BinaryCodec.VERSION);
+        }
+
+        Body string(int tag, String value) {
+            byte[] bytes = value.getBytes(UTF8);
+            out.write(tag);
+            out.write(bytes.length);
+            out.write(bytes, 0, bytes.length);
+            return this;
+        }
+
+        Body flag(int tag, boolean value) {
+            out.write(tag);
+            out.write(1);
+            out.write(value ? 1 : 0);
+            return this;
+        }
+
+        byte[] bytes() {
+            return out.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.singlemalt.googleplay.auth.googleplayauth.concurrent;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Deduplication of in-flight requests by key.
+ */
+public class SingleFlightTest {
+    @Test
+    public void claim_onlyFirstCallerLeads() throws Exception {
+        SingleFlight<String> flights = new SingleFlight<>();
+        SingleFlight.Call<String> first = flights.join("key");
+        SingleFlight.Call<String> second = flights.join("key");
+
+        assertSame(first, second);
+        assertTrue(first.claim());
+        assertFalse(second.claim());
+    }
+
+    @Test
+    public void join_otherKeyGetsOwnCall() throws Exception {
+        SingleFlight<String> flights = new SingleFlight<>();
+
+        assertNotSame(flights.join(SingleFlight.key("token", "a", "scope")),
+                flights.join(SingleFlight.key("token", "b", "scope")));
+    }
+
+    @Test
+    public void complete_retiresCall() throws Exception {
+        SingleFlight<String> flights = new SingleFlight<>();
+        SingleFlight.Call<String> call = flights.join("key");
+        call.claim();
+        flights.complete(call, "done", null);
+
+        assertNull(flights.find("key"));
+        assertEquals("done", call.await());
+        assertNotSame(call, flights.join("key"));
+    }
+
+    @Test
+    public void addCallback_runsOnCompletionOrRightAway() throws Exception {
+        SingleFlight<String> flights = new SingleFlight<>();
+        SingleFlight.Call<String> call = flights.join("key");
+        call.claim();
+        final AtomicReference<String> before = new AtomicReference<>();
+        call.addCallback(new SingleFlight.Callback<String>() {
+            @Override
+            public void onResult(String result, Exception error) {
+                before.set(result);
+            }
+        });
+        assertNull(before.get());
+
+        flights.complete(call, "done", null);
+        final AtomicReference<String> after = new AtomicReference<>();
+        call.addCallback(new SingleFlight.Callback<String>() {
+            @Override
+            public void onResult(String result, Exception error) {
+                after.set(result);
+            }
+        });
+
+        assertEquals("done", before.get());
+        assertEquals("done", after.get());
+    }
+
+    @Test
+    public void execute_concurrentCallersShareOneRun() throws Exception {
+        final SingleFlight<String> flights = new SingleFlight<>();
+        final AtomicInteger runs = new AtomicInteger();
+        final CountDownLatch leaderRunning = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicReference<String> leaderResult = new AtomicReference<>();
+
+        Thread leader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    leaderResult.set(flights.execute("key", new Callable<String>() {
+                        @Override
+                        public String call() throws Exception {
+                            runs.incrementAndGet();
+                            leaderRunning.countDown();
+                            release.await();
+                            return "token";
+                        }
+                    }));
+                } catch (IOException e) {
+                    leaderResult.set(e.toString());
+                }
+            }
+        });
+        leader.start();
+        assertTrue(leaderRunning.await(5, TimeUnit.SECONDS));
+
+        SingleFlight.Call<String> inFlight = flights.find("key");
+        assertNotNull(inFlight);
+        assertFalse(inFlight.claim());
+        release.countDown();
+
+        assertEquals("token", inFlight.await());
+        leader.join(5000);
+        assertEquals("token", leaderResult.get());
+        assertEquals(1, runs.get());
+    }
+
+    @Test
+    public void execute_errorReachesEveryCaller() throws Exception {
+        SingleFlight<String> flights = new SingleFlight<>();
+        SingleFlight.Call<String> call = flights.join("key");
+        call.claim();
+        flights.complete(call, null, new IOException("offline"));
+
+        try {
+            call.await();
+            fail("expected the leader's error");
+        } catch (IOException e) {
+            assertEquals("offline", e.getMessage());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void execute_rethrowsCallableError() throws Exception {
+        new SingleFlight<String>().execute("key", new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                throw new IOException("offline");
+            }
+        });
+    }
+}
@@ -0,0 +1,226 @@
+package com.singlemalt.googleplay.auth.googleplayauth.games;
+
+import android.content.SharedPreferences;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Best score filtering of queued leaderboard submissions.
+ */
+public class ScoreQueueTest {
+    private static final String BOARD = "CgkI_board";
+
+    private MemoryPreferences prefs;
+    private ScoreQueue queue;
+
+    @Before
+    public void setUp() throws Exception {
+        prefs = new MemoryPreferences();
+        queue = new ScoreQueue(prefs);
+    }
+
+    @Test
+    public void submit_keepsOnlyBetterQueuedScore() throws Exception {
+        assertTrue(queue.submit("p1", BOARD, 100, false));
+        assertFalse(queue.submit("p1", BOARD, 90, false));
+        assertFalse(queue.submit("p1", BOARD, 100, false));
+        assertTrue(queue.submit("p1", BOARD, 120, false));
+
+        assertEquals(120, prefs.getLong("score|p1|" + BOARD, 0));
+    }
+
+    @Test
+    public void submit_lowerIsBetter() throws Exception {
+        assertTrue(queue.submit("p1", BOARD, 100, true));
+        assertFalse(queue.submit("p1", BOARD, 110, true));
+        assertTrue(queue.submit("p1", BOARD, 80, true));
+    }
+
+    @Test
+    public void submit_dropsScoreThatCannotBeatSubmittedBest() throws Exception {
+        prefs.edit().putLong("best|p1|" + BOARD, 500).apply();
+
+        assertFalse(queue.submit("p1", BOARD, 400, false));
+        assertTrue(queue.submit("p1", BOARD, 501, false));
+    }
+
+    @Test
+    public void submit_bestIsPerPlayer() throws Exception {
+        prefs.edit().putLong("best|p1|" + BOARD, 500).apply();
+
+        assertTrue(queue.submit("p2", BOARD, 400, false));
+    }
+
+    @Test
+    public void submit_keepsEachPlayersQueuedScore() throws Exception {
+        assertTrue(queue.submit("p1", BOARD, 500, false));
+        assertTrue(queue.submit("p2", BOARD, 400, false));
+        assertFalse(queue.submit("p2", BOARD, 300, false));
+
+        assertEquals(Long.valueOf(500), queue.getPending("p1").get(BOARD));
+        assertEquals(Long.valueOf(400), queue.getPending("p2").get(BOARD));
+        assertEquals(Long.valueOf(400), new ScoreQueue(prefs).getPending("p2").get(BOARD));
+    }
+
+    @Test
+    public void getPending_onlyThatPlayersScores() throws Exception {
+        queue.submit("p1", BOARD, 500, false);
+        queue.submit("p2", "CgkI_other", 400, false);
+
+        assertEquals(1, queue.getPending("p1").size());
+        assertNull(queue.getPending("p1").get("CgkI_other"));
+        assertTrue(queue.getPending("p3").isEmpty());
+    }
+
+    @Test
+    public void pending_survivesReload() throws Exception {
+        queue.submit("p1", BOARD, 100, true);
+
+        ScoreQueue reloaded = new ScoreQueue(prefs);
+
+        assertFalse(reloaded.submit("p1", BOARD, 150, true));
+        assertTrue(reloaded.submit("p1", BOARD, 90, true));
+    }
+
+    // plain maps instead of the preferences file
+    private static class MemoryPreferences implements SharedPreferences {
+        private final Map<String, Object> values = new HashMap<>();
+
+        @Override
+        public Map<String, ?> getAll() {
+            return new HashMap<>(values);
+        }
+
+        @Override
+        public String getString(String key, String defValue) {
+            return values.containsKey(key) ? (String) values.get(key) : defValue;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Set<String> getStringSet(String key, Set<String> defValues) {
+            return values.containsKey(key) ? (Set<String>) values.get(key) : defValues;
+        }
+
+        @Override
+        public int getInt(String key, int defValue) {
+            return values.containsKey(key) ? (Integer) values.get(key) : defValue;
+        }
+
+        @Override
+        public long getLong(String key, long defValue) {
+            return values.containsKey(key) ? (Long) values.get(key) : defValue;
+        }
+
+        @Override
+        public float getFloat(String key, float defValue) {
+            return values.containsKey(key) ? (Float) values.get(key) : defValue;
+        }
+
+        @Override
+        public boolean getBoolean(String key, boolean defValue) {
+            return values.containsKey(key) ? (Boolean) values.get(key) : defValue;
+        }
+
+        @Override
+        public boolean contains(String key) {
+            return values.containsKey(key);
+        }
+
+        @Override
+        public Editor edit() {
+            return new MemoryEditor();
+        }
+
+        @Override
+        public void registerOnSharedPreferenceChangeListener(
+                OnSharedPreferenceChangeListener listener) {
+        }
+
+        @Override
+        public void unregisterOnSharedPreferenceChangeListener(
+                OnSharedPreferenceChangeListener listener) {
+        }
+
+        private class MemoryEditor implements Editor {
+            private final Map<String, Object> changes = new HashMap<>();
+            private boolean clear = false;
+
+            private Editor put(String key, Object value) {
+                changes.put(key, value);
+                return this;
+            }
+
+            @Override
+            public Editor putString(String key, String value) {
+                return put(key, value);
+            }
+
+            @Override
+            public Editor putStringSet(String key, Set<String> values) {
+                return put(key, values != null ? new HashSet<>(values) : null);
+            }
+
+            @Override
+            public Editor putInt(String key, int value) {
+                return put(key, value);
+            }
+
+            @Override
+            public Editor putLong(String key, long value) {
+                return put(key, value);
+            }
+
+            @Override
+            public Editor putFloat(String key, float value) {
+                return put(key, value);
+            }
+
+            @Override
+            public Editor putBoolean(String key, boolean value) {
+                return put(key, value);
+            }
+
+            @Override
+            public Editor remove(String key) {
+                return put(key, null);
+            }
+
+            @Override
+            public Editor clear() {
+                clear = true;
+                return this;
+            }
+
+            @Override
+            public boolean commit() {
+                synchronized (MemoryPreferences.this) {
+                    if (clear) {
+                        values.clear();
+                    }
+                    for (Map.Entry<String, Object> change : changes.entrySet()) {
+                        if (change.getValue() == null) {
+                            values.remove(change.getKey());
+                        } else {
+                            values.put(change.getKey(), change.getValue());
+                        }
+                    }
+                }
+                return true;
+            }
+
+            @Override
+            public void apply() {
+                commit();
+            }
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.singlemalt.googleplay.auth.googleplayauth.lifecycle;
+
+import android.app.Activity;
+import android.app.Application;
+import android.content.Context;
+
+import com.singlemalt.googleplay.auth.googleplayauth.AuthServiceActivity;
+import com.singlemalt.googleplay.auth.googleplayauth.SignInCallbacks;
+import com.singlemalt.googleplay.auth.googleplayauth.tasks.GetOAuthTokenTask;
+
+import org.junit.Test;
+
+import java.lang.ref.Reference;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Activity handles held by long-lived singletons and tasks. Retention is checked by walking
+ * the strong references from the holder, so the tests do not depend on the garbage collector.
+ */
+public class WeakHandleTest {
+    // an activity whose application context is not itself, as on a device
+    private static class TestActivity extends Activity {
+        private final Application application = new Application();
+
+        @Override
+        public Context getApplicationContext() {
+            return application;
+        }
+    }
+
+    // holds the activity the way the singletons used to
+    private static class StrongHolder {
+        final List<Object> listeners = new ArrayList<>();
+    }
+
+    @Test
+    public void get_returnsReferent() throws Exception {
+        Object referent = new Object();
+        WeakHandle<Object> handle = new WeakHandle<>(referent);
+
+        assertSame(referent, handle.get());
+    }
+
+    @Test
+    public void clear_onlyClearsMatchingReferent() throws Exception {
+        Object first = new Object();
+        Object second = new Object();
+        WeakHandle<Object> handle = new WeakHandle<>(first);
+        handle.set(second);
+
+        assertFalse(handle.clear(first));
+        assertSame(second, handle.get());
+        assertTrue(handle.clear(second));
+        assertNull(handle.get());
+    }
+
+    @Test
+    public void handle_doesNotKeepReferentReachable() throws Exception {
+        Object referent = new Object();
+        WeakHandle<Object> handle = new WeakHandle<>(referent);
+
+        assertFalse(isStronglyReachable(handle, referent));
+    }
+
+    @Test
+    public void isStronglyReachable_findsStrongReference() throws Exception {
+        Activity activity = new TestActivity();
+        StrongHolder holder = new StrongHolder();
+        holder.listeners.add(new Object[] { activity });
+
+        assertTrue(isStronglyReachable(holder, activity));
+    }
+
+    @Test
+    public void attach_doesNotKeepActivityReachable() throws Exception {
+        AuthServiceActivity activity = new AuthServiceActivity();
+        SignInCallbacks.getInstance().attach(activity);
+        try {
+            assertFalse(isStronglyReachable(SignInCallbacks.getInstance(), activity));
+        } finally {
+            SignInCallbacks.getInstance().detach(activity);
+        }
+    }
+
+    @Test
+    public void tokenTask_doesNotKeepActivityReachable() throws Exception {
+        Activity activity = new TestActivity();
+        GetOAuthTokenTask task = new GetOAuthTokenTask(activity, "player@example.com", "scope");
+
+        assertFalse(isStronglyReachable(task, activity));
+    }
+
+    /**
+     * Walks instance fields, arrays, collections and maps from the root. Static fields are
+     * roots of their own and weak or soft references do not keep anything alive.
+     */
+    private static boolean isStronglyReachable(Object root, Object target) throws Exception {
+        Set<Object> seen = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+        Deque<Object> queue = new ArrayDeque<>();
+        queue.add(root);
+        while (!queue.isEmpty()) {
+            Object current = queue.poll();
+            if (current == target) {
+                return true;
+            }
+            if (current instanceof Reference || !seen.add(current)) {
+                continue;
+            }
+            for (Object next : references(current)) {
+                if (next != null) {
+                    queue.add(next);
+                }
+            }
+        }
+        return false;
+    }
+
+    private static List<Object> references(Object object) throws IllegalAccessException {
+        List<Object> refs = new ArrayList<>();
+        Class<?> type = object.getClass();
+        if (type.isArray()) {
+            if (!type.getComponentType().isPrimitive()) {
+                refs.addAll(Arrays.asList((Object[]) object));
+            }
+        } else if (object instanceof Collection) {
+            refs.addAll((Collection<?>) object);
+        } else if (object instanceof Map) {
+            refs.addAll(((Map<?, ?>) object).keySet());
+            refs.addAll(((Map<?, ?>) object).values());
+        } else if (object instanceof AtomicReference) {
+            refs.add(((AtomicReference<?>) object).get());
+        } else {
+            // platform classes hold nothing of ours beyond the cases above
+            for (Class<?> c = type; c != null && !c.getName().startsWith("java.");
+                    c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    if (Modifier.isStatic(field.getModifiers()) || field.getType().isPrimitive()) {
+                        continue;
+                    }
+                    field.setAccessible(true);
+                    refs.add(field.get(object));
+                }
+            }
+        }
+        return refs;
+    }
+}
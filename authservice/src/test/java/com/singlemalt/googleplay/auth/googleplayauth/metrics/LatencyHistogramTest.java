@@ -0,0 +1,71 @@
+package com.singlemalt.googleplay.auth.googleplayauth.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Bucketed percentiles of recorded latencies.
+ */
+public class LatencyHistogramTest {
+    @Test
+    public void percentile_emptyIsZero() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        assertEquals(0, histogram.percentile(0.5));
+        assertEquals(0, histogram.getCount());
+    }
+
+    @Test
+    public void percentile_reportsBucketUpperBound() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 90; i++) {
+            histogram.record(40);
+        }
+        for (int i = 0; i < 10; i++) {
+            histogram.record(900);
+        }
+
+        assertEquals(50, histogram.percentile(0.5));
+        assertEquals(50, histogram.percentile(0.9));
+        assertEquals(900, histogram.percentile(0.95));
+        assertEquals(900, histogram.percentile(0.99));
+    }
+
+    @Test
+    public void percentile_neverAboveMax() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(110);
+        histogram.record(120);
+
+        assertEquals(120, histogram.percentile(0.5));
+        assertEquals(120, histogram.getMax());
+    }
+
+    @Test
+    public void percentile_bucketBoundIsInclusive() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(100);
+        histogram.record(101);
+
+        assertEquals(100, histogram.percentile(0.5));
+        assertEquals(101, histogram.percentile(1.0));
+    }
+
+    @Test
+    public void percentile_overflowBucketUsesMax() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(10);
+        histogram.record(45000);
+
+        assertEquals(45000, histogram.percentile(0.99));
+    }
+
+    @Test
+    public void percentile_zeroFractionSkipsEmptyBuckets() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(400);
+
+        assertEquals(400, histogram.percentile(0));
+    }
+}
@@ -0,0 +1,93 @@
+package com.singlemalt.googleplay.auth.googleplayauth.net;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Circuit breaker state machine.
+ */
+public class CircuitBreakerTest {
+    private static final long COOL_DOWN_MS = 30000;
+
+    @Test
+    public void closed_allowsRequestsBelowThreshold() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(3, COOL_DOWN_MS);
+        breaker.recordFailure(0);
+        breaker.recordFailure(0);
+
+        assertFalse(breaker.isOpen());
+        assertTrue(breaker.tryAcquire(0));
+    }
+
+    @Test
+    public void success_resetsFailureCount() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(3, COOL_DOWN_MS);
+        breaker.recordFailure(0);
+        breaker.recordFailure(0);
+        breaker.recordSuccess();
+        breaker.recordFailure(0);
+        breaker.recordFailure(0);
+
+        assertFalse(breaker.isOpen());
+    }
+
+    @Test
+    public void opensAtThreshold_andFailsFastDuringCoolDown() throws Exception {
+        CircuitBreaker breaker = openBreaker();
+
+        assertTrue(breaker.isOpen());
+        assertFalse(breaker.tryAcquire(1000));
+        assertFalse(breaker.tryAcquire(COOL_DOWN_MS - 1));
+    }
+
+    @Test
+    public void afterCoolDown_allowsOneTrial() throws Exception {
+        CircuitBreaker breaker = openBreaker();
+
+        assertTrue(breaker.tryAcquire(COOL_DOWN_MS));
+        assertFalse(breaker.tryAcquire(COOL_DOWN_MS));
+        assertFalse(breaker.tryAcquire(10 * COOL_DOWN_MS));
+    }
+
+    @Test
+    public void successfulTrial_closes() throws Exception {
+        CircuitBreaker breaker = openBreaker();
+        breaker.tryAcquire(COOL_DOWN_MS);
+        breaker.recordSuccess();
+
+        assertFalse(breaker.isOpen());
+        assertTrue(breaker.tryAcquire(COOL_DOWN_MS));
+        assertTrue(breaker.tryAcquire(COOL_DOWN_MS));
+    }
+
+    @Test
+    public void failedTrial_reopensForAnotherCoolDown() throws Exception {
+        CircuitBreaker breaker = openBreaker();
+        breaker.tryAcquire(COOL_DOWN_MS);
+        breaker.recordFailure(COOL_DOWN_MS);
+
+        assertTrue(breaker.isOpen());
+        assertFalse(breaker.tryAcquire(2 * COOL_DOWN_MS - 1));
+        assertTrue(breaker.tryAcquire(2 * COOL_DOWN_MS));
+    }
+
+    @Test
+    public void isAvailable_doesNotTakeTheTrial() throws Exception {
+        CircuitBreaker breaker = openBreaker();
+
+        assertFalse(breaker.isAvailable(COOL_DOWN_MS - 1));
+        assertTrue(breaker.isAvailable(COOL_DOWN_MS));
+        assertTrue(breaker.isAvailable(COOL_DOWN_MS));
+        assertTrue(breaker.tryAcquire(COOL_DOWN_MS));
+        assertFalse(breaker.isAvailable(COOL_DOWN_MS));
+    }
+
+    private static CircuitBreaker openBreaker() {
+        CircuitBreaker breaker = new CircuitBreaker(3, COOL_DOWN_MS);
+        for (int i = 0; i < 3; i++) {
+            breaker.recordFailure(0);
+        }
+        return breaker;
+    }
+}
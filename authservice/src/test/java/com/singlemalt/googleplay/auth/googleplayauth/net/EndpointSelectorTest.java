@@ -0,0 +1,101 @@
+package com.singlemalt.googleplay.auth.googleplayauth.net;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Ranking of auth endpoints by latency, errors and circuit state.
+ */
+public class EndpointSelectorTest {
+    private static final String EU = "https://eu.example.com/auth";
+    private static final String US = "https://us.example.com/auth";
+    private static final String ASIA = "https://asia.example.com/auth";
+
+    @Test
+    public void ranked_withoutSamplesKeepsConfiguredOrder() throws Exception {
+        EndpointSelector selector = new EndpointSelector(EU, US, ASIA);
+
+        assertUrls(selector.ranked(0), EU, US, ASIA);
+    }
+
+    @Test
+    public void ranked_fasterEndpointFirst() throws Exception {
+        EndpointSelector selector = new EndpointSelector(EU, US);
+        List<EndpointSelector.Endpoint> endpoints = selector.ranked(0);
+        endpoints.get(0).recordSuccess(400);
+        endpoints.get(1).recordSuccess(80);
+
+        assertUrls(selector.ranked(0), US, EU);
+    }
+
+    @Test
+    public void ranked_errorsCountAgainstEndpoint() throws Exception {
+        EndpointSelector selector = new EndpointSelector(EU, US);
+        List<EndpointSelector.Endpoint> endpoints = selector.ranked(0);
+        endpoints.get(0).recordSuccess(50);
+        endpoints.get(1).recordSuccess(200);
+        endpoints.get(0).recordFailure(0);
+
+        assertUrls(selector.ranked(0), US, EU);
+    }
+
+    @Test
+    public void ranked_leavesOutOpenCircuits() throws Exception {
+        EndpointSelector selector = new EndpointSelector(EU, US);
+        EndpointSelector.Endpoint eu = selector.ranked(0).get(0);
+        for (int i = 0; i < 5; i++) {
+            eu.recordFailure(0);
+        }
+
+        assertUrls(selector.ranked(1000), US);
+        assertUrls(selector.ranked(30000), US, EU);
+    }
+
+    @Test
+    public void ranked_doesNotClaimHalfOpenTrial() throws Exception {
+        EndpointSelector selector = new EndpointSelector(EU);
+        EndpointSelector.Endpoint eu = selector.ranked(0).get(0);
+        for (int i = 0; i < 5; i++) {
+            eu.recordFailure(0);
+        }
+
+        assertUrls(selector.ranked(30000), EU);
+        assertUrls(selector.ranked(30000), EU);
+        assertTrue(eu.acquire(30000));
+        assertFalse(eu.acquire(30000));
+        assertUrls(selector.ranked(30000));
+    }
+
+    @Test
+    public void getPreferredUrl_bestAvailableWithoutClaimingIt() throws Exception {
+        EndpointSelector selector = new EndpointSelector(EU, US);
+        EndpointSelector.Endpoint eu = selector.ranked(0).get(0);
+        for (int i = 0; i < 5; i++) {
+            eu.recordFailure(0);
+        }
+
+        assertEquals(US, selector.getPreferredUrl(1000));
+        assertEquals(US, selector.getPreferredUrl(30000));
+        assertTrue(eu.acquire(30000));
+    }
+
+    @Test
+    public void hasUrls_matchesConfiguredOrder() throws Exception {
+        EndpointSelector selector = new EndpointSelector(EU, US);
+
+        assertTrue(selector.hasUrls(EU, US));
+        assertFalse(selector.hasUrls(US, EU));
+        assertFalse(selector.hasUrls(EU));
+        assertEquals(EU, selector.getPrimaryUrl());
+    }
+
+    private static void assertUrls(List<EndpointSelector.Endpoint> ranked, String... urls) {
+        assertEquals(urls.length, ranked.size());
+        for (int i = 0; i < urls.length; i++) {
+            assertEquals(urls[i], ranked.get(i).url);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.singlemalt.googleplay.auth.googleplayauth.net;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Backoff delays and Retry-After handling.
+ */
+public class RetryPolicyTest {
+    // 2015-10-21 07:28:00 GMT
+    private static final long RETRY_DATE_MS = 1445412480000L;
+
+    @Test
+    public void delayFor_staysUnderExponentialCeiling() throws Exception {
+        RetryPolicy policy = new RetryPolicy(10, 500, 30000);
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(policy.delayFor(1) < 500);
+            assertTrue(policy.delayFor(3) < 2000);
+            assertTrue(policy.delayFor(9) < 30000);
+        }
+    }
+
+    @Test
+    public void delayFor_isNeverNegative() throws Exception {
+        RetryPolicy policy = new RetryPolicy(40, 500, 30000);
+        for (int attempt = 1; attempt < 40; attempt++) {
+            assertTrue(policy.delayFor(attempt) >= 0);
+        }
+    }
+
+    @Test
+    public void delayFor_givesUpAfterMaxAttempts() throws Exception {
+        RetryPolicy policy = new RetryPolicy(4, 500, 30000);
+
+        assertTrue(policy.delayFor(3) != RetryPolicy.NO_RETRY);
+        assertEquals(RetryPolicy.NO_RETRY, policy.delayFor(4));
+        assertEquals(RetryPolicy.NO_RETRY, policy.delayFor(4, 503, "1"));
+    }
+
+    @Test
+    public void delayFor_waitsAtLeastRetryAfter() throws Exception {
+        RetryPolicy policy = new RetryPolicy(4, 500, 30000);
+
+        assertTrue(policy.delayFor(1, 429, "10") >= 10000);
+        assertTrue(policy.delayFor(1, 503, "10") >= 10000);
+    }
+
+    @Test
+    public void delayFor_ignoresRetryAfterOnOtherCodes() throws Exception {
+        RetryPolicy policy = new RetryPolicy(4, 500, 30000);
+
+        assertTrue(policy.delayFor(1, 500, "10") < 500);
+    }
+
+    @Test
+    public void delayFor_givesUpWhenRetryAfterExceedsCap() throws Exception {
+        RetryPolicy policy = new RetryPolicy(4, 500, 30000);
+
+        assertEquals(RetryPolicy.NO_RETRY, policy.delayFor(1, 503, "31"));
+    }
+
+    @Test
+    public void isRetryable_onlyTransientCodes() throws Exception {
+        assertTrue(RetryPolicy.isRetryable(408));
+        assertTrue(RetryPolicy.isRetryable(429));
+        assertTrue(RetryPolicy.isRetryable(503));
+        assertFalse(RetryPolicy.isRetryable(400));
+        assertFalse(RetryPolicy.isRetryable(401));
+        assertFalse(RetryPolicy.isRetryable(415));
+    }
+
+    @Test
+    public void parseRetryAfter_seconds() throws Exception {
+        assertEquals(120000, RetryPolicy.parseRetryAfter(" 120 ", 0));
+        assertEquals(0, RetryPolicy.parseRetryAfter("-5", 0));
+    }
+
+    @Test
+    public void parseRetryAfter_httpDate() throws Exception {
+        assertEquals(5000, RetryPolicy.parseRetryAfter("Wed, 21 Oct 2015 07:28:00 GMT",
+                RETRY_DATE_MS - 5000));
+        assertEquals(0, RetryPolicy.parseRetryAfter("Wed, 21 Oct 2015 07:28:00 GMT",
+                RETRY_DATE_MS + 5000));
+    }
+
+    @Test
+    public void parseRetryAfter_garbageIsZero() throws Exception {
+        assertEquals(0, RetryPolicy.parseRetryAfter("soon", 0));
+    }
+}
@@ -0,0 +1,58 @@
+package com.singlemalt.googleplay.auth.googleplayauth.runners;
+
+import com.singlemalt.googleplay.auth.googleplayauth.concurrent.SingleFlight;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+/**
+ * When a caller that joined another server auth flight has to run its own.
+ */
+public class ServerAuthRunnerTest {
+    @Test
+    public void needsRerun_joinedFlightFromEarlierAttempt() throws Exception {
+        SingleFlight<ServerAuthRunner.Result> flights = new SingleFlight<>();
+        SingleFlight.Call<ServerAuthRunner.Result> earlier = flights.join("server");
+        assertTrue(earlier.claim());
+
+        // attempt 2 starts while attempt 1 is still in flight and joins it
+        final AtomicBoolean rerun = new AtomicBoolean();
+        SingleFlight.Call<ServerAuthRunner.Result> joined = flights.join("server");
+        assertFalse(joined.claim());
+        joined.addCallback(new SingleFlight.Callback<ServerAuthRunner.Result>() {
+            @Override
+            public void onResult(ServerAuthRunner.Result result, Exception error) {
+                rerun.set(ServerAuthRunner.needsRerun(result, 2, "token", true));
+            }
+        });
+        flights.complete(earlier, new ServerAuthRunner.Result("token", true, 1, false), null);
+
+        assertTrue(rerun.get());
+    }
+
+    @Test
+    public void needsRerun_sameAttemptAndToken() throws Exception {
+        ServerAuthRunner.Result result = new ServerAuthRunner.Result("token", false, 3, false);
+
+        assertFalse(ServerAuthRunner.needsRerun(result, 3, "token", true));
+        assertFalse(ServerAuthRunner.needsRerun(result, 3, null, true));
+    }
+
+    @Test
+    public void needsRerun_olderToken() throws Exception {
+        ServerAuthRunner.Result result = new ServerAuthRunner.Result("old", true, 3, false);
+
+        assertTrue(ServerAuthRunner.needsRerun(result, 3, "new", true));
+    }
+
+    @Test
+    public void needsRerun_failedBackgroundRefreshOnlyForForeground() throws Exception {
+        ServerAuthRunner.Result result = new ServerAuthRunner.Result(null, false, 3, true);
+
+        assertTrue(ServerAuthRunner.needsRerun(result, 3, null, true));
+        assertFalse(ServerAuthRunner.needsRerun(result, 3, null, false));
+    }
+}